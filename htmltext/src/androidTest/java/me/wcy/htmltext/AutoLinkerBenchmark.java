@@ -0,0 +1,104 @@
+package me.wcy.htmltext;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.ClickableSpan;
+import android.text.style.URLSpan;
+import android.text.util.Linkify;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import me.wcy.htmltext.span.LinkClickSpan;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * AutoLinker against the Linkify pass it replaces, on the same text
+ */
+@RunWith(AndroidJUnit4.class)
+public class AutoLinkerBenchmark {
+    private static final String TAG = "AutoLinkerBenchmark";
+    private static final int MASK = Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES;
+    private static final String PARAGRAPH = "Release notes are at http://example.com/notes?v=2 and "
+            + "the mirror www.example.org/download has the files. Questions go to john.doe@example.com, "
+            + "bugs to https://bugs.example.net/issues/42. Version 1.2.3 was released on 2017-06-01, "
+            + "nothing to link in this sentence at all.\n";
+    private static final int REPEAT = 500;
+    private static final int RUNS = 5;
+
+    @Test
+    public void sameLinksAsLinkify() {
+        Spannable linkified = new SpannableStringBuilder(PARAGRAPH);
+        Linkify.addLinks(linkified, MASK);
+        SpannableStringBuilder autoLinked = new SpannableStringBuilder(PARAGRAPH);
+        AutoLinker.link(autoLinked, 0, autoLinked.length(), MASK, null, null);
+        assertEquals(links(linkified), links(autoLinked));
+    }
+
+    @Test
+    public void timeAgainstLinkify() {
+        StringBuilder sb = new StringBuilder(PARAGRAPH.length() * REPEAT);
+        for (int i = 0; i < REPEAT; i++) {
+            sb.append(PARAGRAPH);
+        }
+        String text = sb.toString();
+
+        long linkifyTime = Long.MAX_VALUE;
+        long autoLinkTime = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            Spannable linkified = new SpannableStringBuilder(text);
+            long start = System.nanoTime();
+            Linkify.addLinks(linkified, MASK);
+            linkifyTime = Math.min(linkifyTime, System.nanoTime() - start);
+
+            SpannableStringBuilder autoLinked = new SpannableStringBuilder(text);
+            start = System.nanoTime();
+            AutoLinker.link(autoLinked, 0, autoLinked.length(), MASK, null, null);
+            autoLinkTime = Math.min(autoLinkTime, System.nanoTime() - start);
+        }
+        Log.i(TAG, text.length() + " chars, Linkify " + linkifyTime / 1000 + " us, AutoLinker "
+                + autoLinkTime / 1000 + " us");
+    }
+
+    @Test
+    public void linearOnLongRuns() {
+        // a run of local chars, every '1' after a '.' is a place a link could start
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append("1.");
+        }
+        SpannableStringBuilder text = new SpannableStringBuilder(sb);
+        long start = SystemClock.elapsedRealtime();
+        AutoLinker.link(text, 0, text.length(), Linkify.ALL, null, null);
+        long time = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, text.length() + " chars of 1.1.1 in " + time + " ms");
+        assertEquals(0, links(text).size());
+    }
+
+    private static List<String> links(Spannable text) {
+        final Spannable spannable = text;
+        ClickableSpan[] spans = text.getSpans(0, text.length(), ClickableSpan.class);
+        Arrays.sort(spans, new Comparator<ClickableSpan>() {
+            @Override
+            public int compare(ClickableSpan s1, ClickableSpan s2) {
+                return spannable.getSpanStart(s1) - spannable.getSpanStart(s2);
+            }
+        });
+        List<String> links = new ArrayList<>();
+        for (ClickableSpan span : spans) {
+            // Linkify marks links with URLSpan, AutoLinker with LinkClickSpan
+            String url = (span instanceof URLSpan) ? ((URLSpan) span).getURL() : ((LinkClickSpan) span).getUrl();
+            links.add(text.getSpanStart(span) + "-" + text.getSpanEnd(span) + " " + url);
+        }
+        return links;
+    }
+}
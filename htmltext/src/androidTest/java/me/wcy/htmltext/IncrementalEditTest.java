@@ -0,0 +1,74 @@
+package me.wcy.htmltext;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Editable;
+import android.text.style.ImageSpan;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Edits through {@link HtmlText#intoIncremental(TextView)} on a real TextView
+ */
+@RunWith(AndroidJUnit4.class)
+public class IncrementalEditTest {
+
+    @Test
+    public void editAddsImage() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TextView textView = new TextView(InstrumentationRegistry.getTargetContext());
+                HtmlImageLoader imageLoader = new SyncImageLoader();
+                HtmlText.from("<p>a</p><p>b</p>").setImageLoader(imageLoader).intoIncremental(textView);
+                Editable editable = textView.getEditableText();
+
+                // the image is loaded while its block renders, before it is in the text
+                HtmlText.from("<p>a</p><p>b<img src=\"http://example.com/a.png\"></p>")
+                        .setImageLoader(imageLoader)
+                        .intoIncremental(textView);
+
+                assertSame(editable, textView.getEditableText());
+                ImageSpan[] images = editable.getSpans(0, editable.length(), ImageSpan.class);
+                assertEquals(1, images.length);
+                assertEquals("http://example.com/a.png", images[0].getSource());
+            }
+        });
+    }
+
+    private static class SyncImageLoader implements HtmlImageLoader {
+        @Override
+        public void loadImage(String url, Callback callback) {
+            callback.onLoadComplete(Bitmap.createBitmap(20, 10, Bitmap.Config.ARGB_8888));
+        }
+
+        @Override
+        public Drawable getDefaultDrawable() {
+            return new ColorDrawable(Color.GRAY);
+        }
+
+        @Override
+        public Drawable getErrorDrawable() {
+            return new ColorDrawable(Color.GRAY);
+        }
+
+        @Override
+        public int getMaxWidth() {
+            return 100;
+        }
+
+        @Override
+        public boolean fitWidth() {
+            return false;
+        }
+    }
+}
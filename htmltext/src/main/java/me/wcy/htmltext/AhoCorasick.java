@@ -0,0 +1,207 @@
+package me.wcy.htmltext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-pattern matcher, finds all patterns in one pass over the text whatever their number.<br>
+ * Transitions are kept as sorted char arrays per state, a char no pattern starts with
+ * is rejected at the root by a bit set.
+ */
+class AhoCorasick {
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    /**
+     * Pattern spelled by each state, -1 for none
+     */
+    private final int[] terminals;
+    /**
+     * Nearest state on the failure path which spells a pattern, -1 for none.
+     * Following these links from a state lists every pattern ending there, longest first.
+     */
+    private final int[] dict;
+    private final int[] lengths;
+    private final long[] firstChars = new long[1024];
+    private final int maxLength;
+
+    AhoCorasick(List<String> patterns) {
+        // trie
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        children.add(new HashMap<Character, Integer>());
+        terminal.add(-1);
+        lengths = new int[patterns.size()];
+        int longest = 0;
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            lengths[p] = pattern.length();
+            longest = Math.max(longest, pattern.length());
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                Integer next = children.get(state).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.add(new HashMap<Character, Integer>());
+                    terminal.add(-1);
+                    children.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (pattern.length() > 0) {
+                terminal.set(state, p);
+                firstChars[pattern.charAt(0) >>> 6] |= 1L << pattern.charAt(0);
+            }
+        }
+        maxLength = longest;
+
+        int count = children.size();
+        labels = new char[count][];
+        targets = new int[count][];
+        for (int state = 0; state < count; state++) {
+            Map<Character, Integer> map = children.get(state);
+            char[] keys = new char[map.size()];
+            int i = 0;
+            for (Character c : map.keySet()) {
+                keys[i++] = c;
+            }
+            Arrays.sort(keys);
+            int[] next = new int[keys.length];
+            for (i = 0; i < keys.length; i++) {
+                next[i] = map.get(keys[i]);
+            }
+            labels[state] = keys;
+            targets[state] = next;
+        }
+
+        // failure links breadth first, so the state a link points to is done already
+        fail = new int[count];
+        terminals = new int[count];
+        dict = new int[count];
+        terminals[0] = -1;
+        dict[0] = -1;
+        int[] queue = new int[count];
+        int head = 0;
+        int tail = 0;
+        for (int child : targets[0]) {
+            fail[child] = 0;
+            terminals[child] = terminal.get(child);
+            dict[child] = -1;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int i = 0; i < labels[state].length; i++) {
+                char c = labels[state][i];
+                int child = targets[state][i];
+                int f = fail[state];
+                int next;
+                while ((next = transition(f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = (next < 0) ? 0 : next;
+                terminals[child] = terminal.get(child);
+                dict[child] = (terminals[fail[child]] >= 0) ? fail[child] : dict[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Leftmost longest matches in [start, end) which don't overlap: the match starting first wins,
+     * of those starting at the same char the longest.
+     *
+     * @return (start, end, pattern index) of each match, in text order
+     */
+    int[] match(CharSequence text, int start, int end) {
+        int[] matches = new int[0];
+        int count = 0;
+        if (maxLength == 0) {
+            return matches;
+        }
+        // longest pattern starting at each char not decided yet, by start modulo maxLength
+        int[] longest = new int[maxLength];
+        Arrays.fill(longest, -1);
+        // first char not decided yet, every match starting before it is known
+        int decided = start;
+        int committedEnd = start;
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = (next < 0) ? 0 : next;
+
+            for (int s = (terminals[state] >= 0) ? state : dict[state]; s >= 0; s = dict[s]) {
+                int pattern = terminals[s];
+                int matchStart = i + 1 - lengths[pattern];
+                if (matchStart < committedEnd) {
+                    // overlaps a match taken already, a shorter one may not
+                    continue;
+                }
+                int slot = matchStart % maxLength;
+                if (longest[slot] < 0 || lengths[pattern] > lengths[longest[slot]]) {
+                    longest[slot] = pattern;
+                }
+            }
+
+            // no match starting at or before i + 1 - maxLength can end after i
+            for (; decided <= i + 1 - maxLength; decided++) {
+                if (take(longest, decided, committedEnd)) {
+                    int pattern = longest[decided % maxLength];
+                    matches = add(matches, count++, decided, decided + lengths[pattern], pattern);
+                    committedEnd = decided + lengths[pattern];
+                }
+                longest[decided % maxLength] = -1;
+            }
+        }
+        for (; decided < end; decided++) {
+            if (take(longest, decided, committedEnd)) {
+                int pattern = longest[decided % maxLength];
+                matches = add(matches, count++, decided, decided + lengths[pattern], pattern);
+                committedEnd = decided + lengths[pattern];
+            }
+            longest[decided % maxLength] = -1;
+        }
+        if (matches.length == count * 3) {
+            return matches;
+        }
+        int[] result = new int[count * 3];
+        System.arraycopy(matches, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Whether the longest match starting at position is kept, it must start after the last one taken
+     */
+    private boolean take(int[] longest, int position, int committedEnd) {
+        return position >= committedEnd && longest[position % maxLength] >= 0;
+    }
+
+    private int transition(int state, char c) {
+        if (state == 0 && (firstChars[c >>> 6] & (1L << c)) == 0) {
+            return -1;
+        }
+        char[] keys = labels[state];
+        int index = Arrays.binarySearch(keys, c);
+        return (index >= 0) ? targets[state][index] : -1;
+    }
+
+    private static int[] add(int[] matches, int count, int start, int end, int pattern) {
+        if (matches.length < (count + 1) * 3) {
+            int[] larger = new int[Math.max(24, matches.length * 2)];
+            System.arraycopy(matches, 0, larger, 0, count * 3);
+            matches = larger;
+        }
+        matches[count * 3] = start;
+        matches[count * 3 + 1] = end;
+        matches[count * 3 + 2] = pattern;
+        return matches;
+    }
+}
@@ -0,0 +1,368 @@
+package me.wcy.htmltext;
+
+import android.content.Context;
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.util.Linkify;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import me.wcy.htmltext.span.LinkClickSpan;
+
+/**
+ * Detects bare urls, email addresses and phone numbers while the document is parsed.<br>
+ * Sits between the XMLReader and Html's converter, the text appended since the last boundary
+ * is scanned once, by hand instead of with regular expressions. Inline elements are no boundary,
+ * so a link may span styled text. Text inside &lt;a&gt; is skipped.
+ * Links are marked with LinkClickSpan as they are found, the same as &lt;a&gt; links.
+ */
+class AutoLinker extends ForwardingContentHandler {
+    private static final String[] WEB_PREFIXES = {"http://", "https://", "www."};
+    private static final int MIN_PHONE_DIGITS = 7;
+    private static final int MAX_PHONE_DIGITS = 15;
+    /**
+     * Elements which add no text of their own, text on both sides is scanned as one
+     */
+    private static final String[] INLINE_TAGS = {
+            "b", "i", "u", "em", "strong", "span", "font", "big", "small", "sub", "sup",
+            "tt", "code", "s", "strike", "del", "ins", "dfn", "cite", "q", "abbr",
+            HtmlTagHandler.FONT, HtmlTagHandler.STYLE
+    };
+
+    private final Editable output;
+    private final int mask;
+    private final Context context;
+    private final OnTagClickListener listener;
+    /**
+     * Start of the text not scanned yet
+     */
+    private int scanFrom;
+    private int anchorDepth;
+
+    private AutoLinker(ContentHandler delegate, Editable output, int mask,
+                       Context context, OnTagClickListener listener) {
+        super(delegate);
+        this.output = output;
+        this.mask = mask;
+        this.context = context;
+        this.listener = listener;
+        this.scanFrom = output.length();
+    }
+
+    /**
+     * Called from the first tag, the reader takes the new handler for all following events
+     */
+    static void install(XMLReader xmlReader, Editable output, int mask,
+                        Context context, OnTagClickListener listener) {
+        ContentHandler handler = xmlReader.getContentHandler();
+        if (handler != null && !(handler instanceof AutoLinker)) {
+            xmlReader.setContentHandler(new AutoLinker(handler, output, mask, context, listener));
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        boolean inline = isInline(localName);
+        if (!inline) {
+            flush();
+        }
+        super.startElement(uri, localName, qName, atts);
+        if (HtmlTagHandler.ANCHOR.equalsIgnoreCase(localName)) {
+            anchorDepth++;
+        }
+        if (!inline) {
+            scanFrom = output.length();
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        boolean inline = isInline(localName);
+        if (!inline) {
+            flush();
+        }
+        super.endElement(uri, localName, qName);
+        if (HtmlTagHandler.ANCHOR.equalsIgnoreCase(localName) && anchorDepth > 0) {
+            anchorDepth--;
+        }
+        if (!inline) {
+            scanFrom = output.length();
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        flush();
+        super.endDocument();
+    }
+
+    private static boolean isInline(String name) {
+        for (String tag : INLINE_TAGS) {
+            if (tag.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flush() {
+        int end = output.length();
+        if (anchorDepth == 0 && scanFrom < end) {
+            link(output, scanFrom, end, mask, context, listener);
+        }
+        scanFrom = end;
+    }
+
+    /**
+     * Mark the links in [start, end), every char is visited a constant number of times
+     */
+    static void link(Editable text, int start, int end, int mask, Context context, OnTagClickListener listener) {
+        // the run of local chars around i and the email domain after it, the same for every start in the run
+        int localEnd = start;
+        int domainEnd = -1;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            boolean boundary = i == 0 || !isWordChar(text.charAt(i - 1));
+            if (!boundary) {
+                i++;
+                continue;
+            }
+
+            if ((mask & Linkify.WEB_URLS) != 0) {
+                int linkEnd = matchWebUrl(text, i, end);
+                if (linkEnd > 0) {
+                    String url = text.subSequence(i, linkEnd).toString();
+                    if (url.regionMatches(true, 0, "www.", 0, 4)) {
+                        url = "http://" + url;
+                    }
+                    setLink(text, url, i, linkEnd, context, listener);
+                    i = linkEnd;
+                    continue;
+                }
+            }
+
+            if (isLocalChar(c)) {
+                if (i >= localEnd) {
+                    localEnd = i;
+                    while (localEnd < end && isLocalChar(text.charAt(localEnd))) {
+                        localEnd++;
+                    }
+                    domainEnd = ((mask & Linkify.EMAIL_ADDRESSES) != 0 && localEnd < end
+                            && text.charAt(localEnd) == '@') ? matchDomain(text, localEnd + 1, end) : -1;
+                }
+                if (domainEnd > 0) {
+                    setLink(text, "mailto:" + text.subSequence(i, domainEnd), i, domainEnd, context, listener);
+                    i = domainEnd;
+                    continue;
+                }
+                if (!isDigit(c) && c != '+') {
+                    // no link can start inside this run
+                    i = localEnd;
+                    continue;
+                }
+            }
+
+            if ((mask & Linkify.PHONE_NUMBERS) != 0 && (c == '+' || c == '(' || isDigit(c))) {
+                int linkEnd = matchPhone(text, i, end);
+                if (linkEnd > 0) {
+                    StringBuilder tel = new StringBuilder("tel:");
+                    for (int j = i; j < linkEnd; j++) {
+                        char d = text.charAt(j);
+                        if (d == '+' || isDigit(d)) {
+                            tel.append(d);
+                        }
+                    }
+                    setLink(text, tel.toString(), i, linkEnd, context, listener);
+                    i = linkEnd;
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+
+    private static void setLink(Editable text, String url, int start, int end,
+                                Context context, OnTagClickListener listener) {
+        LinkClickSpan span = new LinkClickSpan(context, url);
+        span.setListener(listener);
+        // exclusive while parsing, text appended later must not extend the link
+        text.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
+    /**
+     * @return end of the url starting at start, or -1
+     */
+    private static int matchWebUrl(CharSequence text, int start, int end) {
+        int hostStart = -1;
+        for (String prefix : WEB_PREFIXES) {
+            int prefixEnd = start + prefix.length();
+            if (prefixEnd <= end && regionMatches(text, start, prefix)) {
+                hostStart = prefixEnd;
+                break;
+            }
+        }
+        if (hostStart < 0 || hostStart >= end || !isHostChar(text.charAt(hostStart))) {
+            return -1;
+        }
+
+        int urlEnd = hostStart;
+        int parentheses = 0;
+        while (urlEnd < end && isUrlChar(text.charAt(urlEnd))) {
+            char c = text.charAt(urlEnd);
+            if (c == '(') {
+                parentheses++;
+            } else if (c == ')') {
+                parentheses--;
+            }
+            urlEnd++;
+        }
+        // punctuation ending a sentence is not part of the url, a closing parenthesis only if unbalanced
+        while (urlEnd > hostStart) {
+            char last = text.charAt(urlEnd - 1);
+            if (last == ')' && parentheses < 0) {
+                parentheses++;
+            } else if (".,;:!?'\"".indexOf(last) < 0) {
+                break;
+            }
+            urlEnd--;
+        }
+        return (urlEnd > hostStart) ? urlEnd : -1;
+    }
+
+    /**
+     * @return end of the email domain starting at start, or -1
+     */
+    private static int matchDomain(CharSequence text, int start, int end) {
+        int domainEnd = start;
+        int lastDot = -1;
+        while (domainEnd < end) {
+            char c = text.charAt(domainEnd);
+            if (c == '.' && domainEnd > start && domainEnd + 1 < end && isHostChar(text.charAt(domainEnd + 1))
+                    && text.charAt(domainEnd - 1) != '.') {
+                lastDot = domainEnd;
+            } else if (!isHostChar(c)) {
+                break;
+            }
+            domainEnd++;
+        }
+        if (lastDot < 0) {
+            return -1;
+        }
+        // top level domain of letters only
+        for (int i = lastDot + 1; i < domainEnd; i++) {
+            if (!isAsciiLetter(text.charAt(i))) {
+                return -1;
+            }
+        }
+        return (domainEnd - lastDot > 2) ? domainEnd : -1;
+    }
+
+    /**
+     * Digits with short runs of separators, as "+86 138-0000-0000" or "(010) 8888 8888"
+     *
+     * @return end of the phone number starting at start, or -1
+     */
+    private static int matchPhone(CharSequence text, int start, int end) {
+        if (start > 1 && (text.charAt(start - 1) == '.' || text.charAt(start - 1) == ',')
+                && isDigit(text.charAt(start - 2))) {
+            // fraction of a number
+            return -1;
+        }
+        int i = start;
+        boolean plus = text.charAt(i) == '+';
+        if (plus || text.charAt(i) == '(') {
+            i++;
+        }
+        int digits = 0;
+        int separators = 0;
+        int numberEnd = i;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (isDigit(c)) {
+                if (++digits > MAX_PHONE_DIGITS) {
+                    return -1;
+                }
+                separators = 0;
+                i++;
+                numberEnd = i;
+            } else if ((c == ' ' || c == '-' || c == '(' || c == ')') && ++separators <= 2) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (digits < MIN_PHONE_DIGITS) {
+            return -1;
+        }
+        // part of a word, a decimal or a version number
+        if (numberEnd < end) {
+            char next = text.charAt(numberEnd);
+            if (isWordChar(next) || ((next == '.' || next == ',') && numberEnd + 1 < end
+                    && isDigit(text.charAt(numberEnd + 1)))) {
+                return -1;
+            }
+        }
+        if (!plus && isDate(text, start, numberEnd)) {
+            return -1;
+        }
+        return numberEnd;
+    }
+
+    /**
+     * yyyy-mm-dd
+     */
+    private static boolean isDate(CharSequence text, int start, int end) {
+        if (end - start != 10 || text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (i != start + 4 && i != start + 7 && !isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(start + i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Only ascii, links often follow CJK text without a space
+     */
+    private static boolean isWordChar(char c) {
+        return isAsciiLetter(c) || isDigit(c) || c == '_' || c == '@' || c == '/';
+    }
+
+    private static boolean isLocalChar(char c) {
+        return isAsciiLetter(c) || isDigit(c) || "._%+-".indexOf(c) >= 0;
+    }
+
+    private static boolean isHostChar(char c) {
+        return isAsciiLetter(c) || isDigit(c) || c == '-';
+    }
+
+    /**
+     * Printable ascii without the chars which can't appear unescaped in a url
+     */
+    private static boolean isUrlChar(char c) {
+        return c > ' ' && c < 0x7F && "<>\"{}|\\^`".indexOf(c) < 0;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
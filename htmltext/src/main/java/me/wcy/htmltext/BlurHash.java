@@ -0,0 +1,136 @@
+package me.wcy.htmltext;
+
+import android.graphics.Bitmap;
+
+/**
+ * Decodes a BlurHash (https://blurha.sh) into a tiny bitmap, shown stretched while the image loads.<br>
+ * A hash is a few dozen chars of base 83 holding up to 9x9 cosine components,
+ * a 32x32 bitmap of it is computed in well under a millisecond.
+ */
+class BlurHash {
+    private static final String CHARS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+    /**
+     * Size of the decoded bitmap, the components are smooth and don't need more
+     */
+    static final int SIZE = 32;
+
+    private BlurHash() {
+    }
+
+    /**
+     * @return null if the hash is malformed
+     */
+    static Bitmap decode(String hash, int width, int height) {
+        int[] pixels = decodePixels(hash, width, height);
+        if (pixels == null) {
+            return null;
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Opaque ARGB pixels row by row, null if the hash is malformed
+     */
+    static int[] decodePixels(String hash, int width, int height) {
+        if (hash == null || hash.length() < 6 || width <= 0 || height <= 0) {
+            return null;
+        }
+        int sizeFlag = decode83(hash, 0, 1);
+        if (sizeFlag < 0) {
+            return null;
+        }
+        int numX = sizeFlag % 9 + 1;
+        int numY = sizeFlag / 9 + 1;
+        if (hash.length() != 4 + 2 * numX * numY) {
+            return null;
+        }
+        int quantisedMax = decode83(hash, 1, 2);
+        if (quantisedMax < 0) {
+            return null;
+        }
+        float maxValue = (quantisedMax + 1) / 166f;
+
+        // linear rgb of each component
+        float[] colors = new float[numX * numY * 3];
+        int dc = decode83(hash, 2, 6);
+        if (dc < 0) {
+            return null;
+        }
+        colors[0] = srgbToLinear(dc >> 16);
+        colors[1] = srgbToLinear((dc >> 8) & 0xFF);
+        colors[2] = srgbToLinear(dc & 0xFF);
+        for (int i = 1; i < numX * numY; i++) {
+            int ac = decode83(hash, 4 + i * 2, 6 + i * 2);
+            if (ac < 0) {
+                return null;
+            }
+            colors[i * 3] = signPow((ac / (19 * 19) - 9) / 9f) * maxValue;
+            colors[i * 3 + 1] = signPow(((ac / 19) % 19 - 9) / 9f) * maxValue;
+            colors[i * 3 + 2] = signPow((ac % 19 - 9) / 9f) * maxValue;
+        }
+
+        float[] cosX = new float[numX * width];
+        for (int i = 0; i < numX; i++) {
+            for (int x = 0; x < width; x++) {
+                cosX[i * width + x] = (float) Math.cos(Math.PI * x * i / width);
+            }
+        }
+        float[] cosY = new float[numY * height];
+        for (int j = 0; j < numY; j++) {
+            for (int y = 0; y < height; y++) {
+                cosY[j * height + y] = (float) Math.cos(Math.PI * y * j / height);
+            }
+        }
+
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                for (int j = 0; j < numY; j++) {
+                    float cy = cosY[j * height + y];
+                    for (int i = 0; i < numX; i++) {
+                        float basis = cosX[i * width + x] * cy;
+                        int c = (j * numX + i) * 3;
+                        r += colors[c] * basis;
+                        g += colors[c + 1] * basis;
+                        b += colors[c + 2] * basis;
+                    }
+                }
+                pixels[y * width + x] = 0xFF000000 | (linearToSrgb(r) << 16) | (linearToSrgb(g) << 8) | linearToSrgb(b);
+            }
+        }
+        return pixels;
+    }
+
+    private static int decode83(String hash, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = CHARS.indexOf(hash.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 83 + digit;
+        }
+        return value;
+    }
+
+    private static float signPow(float value) {
+        return (value < 0) ? -value * value : value * value;
+    }
+
+    private static float srgbToLinear(int value) {
+        float v = value / 255f;
+        return (v <= 0.04045f) ? v / 12.92f : (float) Math.pow((v + 0.055f) / 1.055f, 2.4f);
+    }
+
+    private static int linearToSrgb(float value) {
+        float v = Math.max(0f, Math.min(1f, value));
+        if (v <= 0.0031308f) {
+            return (int) (v * 12.92f * 255 + 0.5f);
+        }
+        return (int) ((1.055f * (float) Math.pow(v, 1 / 2.4f) - 0.055f) * 255 + 0.5f);
+    }
+}
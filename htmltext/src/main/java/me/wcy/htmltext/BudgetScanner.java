@@ -0,0 +1,298 @@
+package me.wcy.htmltext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Linear pre-scan of the source against a {@link RenderBudget}, finds the offset where
+ * the first limit is hit so the source can be cut at a tag boundary before parsing
+ */
+class BudgetScanner {
+    private static final String[] VOID_TAGS = {
+            "area", "base", "br", "col", "embed", "hr", "img", "input",
+            "link", "meta", "param", "source", "track", "wbr"
+    };
+    // elements whose end tag may be omitted, with the elements a search for them stops at
+    private static final String[] LIST_ITEM = {"li"};
+    private static final String[] LIST_SCOPE = {"ul", "ol"};
+    private static final String[] DEFINITION = {"dt", "dd"};
+    private static final String[] DEFINITION_SCOPE = {"dl"};
+    private static final String[] CELL = {"td", "th"};
+    private static final String[] CELL_SCOPE = {"tr", "table"};
+    private static final String[] ROW = {"tr"};
+    private static final String[] ROW_SCOPE = {"table"};
+    private static final String[] OPTION = {"option"};
+    private static final String[] OPTION_SCOPE = {"select"};
+    /**
+     * Start tags which end an open &lt;p&gt;
+     */
+    static final String[] CLOSES_PARAGRAPH = {
+            "p", "div", "ul", "ol", "dl", "table", "blockquote", "pre",
+            "h1", "h2", "h3", "h4", "h5", "h6"
+    };
+
+    /**
+     * Source is kept up to this offset
+     */
+    int end;
+    /**
+     * The first limit hit, null if the source fits the budget
+     */
+    RenderBudget.Limit limit;
+
+    private BudgetScanner(int end) {
+        this.end = end;
+    }
+
+    static BudgetScanner scan(String source, RenderBudget budget) {
+        int length = source.length();
+        BudgetScanner result = new BudgetScanner(length);
+        if (length > budget.maxInputChars) {
+            length = budget.maxInputChars;
+            result.end = length;
+            result.limit = RenderBudget.Limit.INPUT_CHARS;
+        }
+
+        // open elements, only tracked for the nesting limit
+        boolean nesting = budget.maxNestingDepth != RenderBudget.UNLIMITED;
+        List<String> open = new ArrayList<>();
+        int tagCount = 0;
+        int imageCount = 0;
+        int i = 0;
+        while (i < length) {
+            int tagStart = source.indexOf('<', i);
+            if (tagStart < 0 || tagStart >= length) {
+                break;
+            }
+            char c = (tagStart + 1 < length) ? source.charAt(tagStart + 1) : 0;
+            if (c != '/' && c != '!' && c != '?' && !Character.isLetter(c)) {
+                // a plain '<' in text
+                i = tagStart + 1;
+                continue;
+            }
+            if (c == '!' || c == '?') {
+                // comment, doctype or CDATA, hides the tags inside it
+                int markupEnd = findMarkupEnd(source, tagStart, length);
+                if (markupEnd < 0) {
+                    break;
+                }
+                i = markupEnd + 1;
+                continue;
+            }
+            int tagEnd = findTagEnd(source, tagStart + 1, length);
+            if (tagEnd < 0) {
+                // unterminated, the parser takes the rest of the input as the tag
+                tagEnd = length;
+            }
+            i = tagEnd + 1;
+
+            int nameStart = (c == '/') ? tagStart + 2 : tagStart + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < tagEnd && Character.isLetterOrDigit(source.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            String name = source.substring(nameStart, nameEnd).toLowerCase();
+            if (c == '/') {
+                if (nesting) {
+                    close(open, name);
+                }
+                continue;
+            }
+
+            RenderBudget.Limit hit = null;
+            if (++tagCount > budget.maxTagCount) {
+                hit = RenderBudget.Limit.TAG_COUNT;
+            } else if (name.equals("img") && ++imageCount > budget.maxImageCount) {
+                hit = RenderBudget.Limit.IMAGE_COUNT;
+            } else if (nesting && source.charAt(tagEnd - 1) != '/' && !contains(VOID_TAGS, name)) {
+                closeImplied(open, name);
+                open.add(name);
+                if (open.size() > budget.maxNestingDepth) {
+                    hit = RenderBudget.Limit.NESTING_DEPTH;
+                }
+            }
+            if (hit != null) {
+                result.end = tagStart;
+                result.limit = hit;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * An end tag closes its element and the elements left open inside it, a stray one is ignored
+     */
+    private static void close(List<String> open, String name) {
+        for (int i = open.size() - 1; i >= 0; i--) {
+            if (open.get(i).equals(name)) {
+                popTo(open, i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Close what a start tag ends implicitly, as in a list of &lt;li&gt; without &lt;/li&gt;
+     */
+    private static void closeImplied(List<String> open, String name) {
+        if (name.equals("li")) {
+            closeInScope(open, LIST_ITEM, LIST_SCOPE);
+        } else if (name.equals("dt") || name.equals("dd")) {
+            closeInScope(open, DEFINITION, DEFINITION_SCOPE);
+        } else if (name.equals("td") || name.equals("th")) {
+            closeInScope(open, CELL, CELL_SCOPE);
+        } else if (name.equals("tr")) {
+            closeInScope(open, ROW, ROW_SCOPE);
+        } else if (name.equals("option")) {
+            closeInScope(open, OPTION, OPTION_SCOPE);
+        }
+        if (contains(CLOSES_PARAGRAPH, name) && !open.isEmpty() && open.get(open.size() - 1).equals("p")) {
+            open.remove(open.size() - 1);
+        }
+    }
+
+    /**
+     * Close the innermost element named in names, unless an element of scope is open inside it
+     */
+    private static void closeInScope(List<String> open, String[] names, String[] scope) {
+        for (int i = open.size() - 1; i >= 0; i--) {
+            String tag = open.get(i);
+            if (contains(names, tag)) {
+                popTo(open, i);
+                return;
+            }
+            if (contains(scope, tag)) {
+                return;
+            }
+        }
+    }
+
+    private static void popTo(List<String> open, int index) {
+        for (int i = open.size() - 1; i >= index; i--) {
+            open.remove(i);
+        }
+    }
+
+    /**
+     * Strip tags and decode common entities, block tags become new lines
+     */
+    static String toPlainText(String source, int maxChars) {
+        int length = Math.min(source.length(), maxChars);
+        StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '<') {
+                char next = (i + 1 < length) ? source.charAt(i + 1) : 0;
+                int tagEnd = (next == '!' || next == '?')
+                        ? findMarkupEnd(source, i, length) : findTagEnd(source, i + 1, length);
+                if (tagEnd < 0) {
+                    break;
+                }
+                if (isBreakTag(source, i + 1, tagEnd) && sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') {
+                    sb.append('\n');
+                }
+                i = tagEnd + 1;
+            } else if (c == '&') {
+                int semicolon = source.indexOf(';', i);
+                if (semicolon > i && semicolon - i <= 10 && semicolon < length) {
+                    int decoded = decodeEntity(source.substring(i + 1, semicolon));
+                    if (decoded >= 0 && Character.isValidCodePoint(decoded)) {
+                        sb.appendCodePoint(decoded);
+                        i = semicolon + 1;
+                        continue;
+                    }
+                }
+                sb.append(c);
+                i++;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Index of the '>' closing a tag, quoted attribute values may contain '>'
+     */
+    static int findTagEnd(String source, int from, int length) {
+        char quote = 0;
+        for (int i = from; i < length; i++) {
+            char c = source.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index of the last char of a comment, doctype or CDATA starting at tagStart, -1 if unterminated.
+     * Quotes don't count in them, a comment ends at "--&gt;" and the others at the first '&gt;'.
+     */
+    static int findMarkupEnd(String source, int tagStart, int length) {
+        if (source.startsWith("<!--", tagStart)) {
+            int commentEnd = source.indexOf("-->", tagStart + 4);
+            return (commentEnd < 0 || commentEnd + 3 > length) ? -1 : commentEnd + 2;
+        }
+        int end = source.indexOf('>', tagStart + 2);
+        return (end < 0 || end >= length) ? -1 : end;
+    }
+
+    private static boolean contains(String[] tags, String name) {
+        for (String tag : tags) {
+            if (tag.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBreakTag(String source, int from, int tagEnd) {
+        if (from < tagEnd && source.charAt(from) == '/') {
+            from++;
+        }
+        int nameEnd = from;
+        while (nameEnd < tagEnd && Character.isLetterOrDigit(source.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        String name = source.substring(from, nameEnd).toLowerCase();
+        return name.equals("br") || name.equals("p") || name.equals("div") || name.equals("li")
+                || name.equals("tr") || name.equals("blockquote")
+                || (name.length() == 2 && name.charAt(0) == 'h' && Character.isDigit(name.charAt(1)));
+    }
+
+    private static int decodeEntity(String entity) {
+        if (entity.equals("amp")) {
+            return '&';
+        } else if (entity.equals("lt")) {
+            return '<';
+        } else if (entity.equals("gt")) {
+            return '>';
+        } else if (entity.equals("quot")) {
+            return '"';
+        } else if (entity.equals("apos")) {
+            return '\'';
+        } else if (entity.equals("nbsp")) {
+            return ' ';
+        } else if (entity.length() > 1 && entity.charAt(0) == '#') {
+            try {
+                if (entity.charAt(1) == 'x' || entity.charAt(1) == 'X') {
+                    return Integer.parseInt(entity.substring(2), 16);
+                }
+                return Integer.parseInt(entity.substring(1));
+            } catch (NumberFormatException ignored) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,56 @@
+package me.wcy.htmltext;
+
+import android.os.SystemClock;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Aborts parsing once the time of the {@link RenderBudget} is up.<br>
+ * Html hands only the tags it doesn't know to the TagHandler, so a document of p, b and div
+ * would never be checked there. The time is checked on every element and text run instead.
+ */
+class DeadlineHandler extends ForwardingContentHandler {
+    private final long deadline;
+
+    private DeadlineHandler(ContentHandler delegate, long deadline) {
+        super(delegate);
+        this.deadline = deadline;
+    }
+
+    /**
+     * Called from the first tag, the reader takes the new handler for all following events
+     */
+    static void install(XMLReader xmlReader, long deadline) {
+        ContentHandler handler = xmlReader.getContentHandler();
+        if (handler != null && !(handler instanceof DeadlineHandler)) {
+            xmlReader.setContentHandler(new DeadlineHandler(handler, deadline));
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        check();
+        super.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        check();
+        super.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        check();
+        super.characters(ch, start, length);
+    }
+
+    private void check() {
+        if (SystemClock.uptimeMillis() > deadline) {
+            throw new RenderBudget.ExceededException(RenderBudget.Limit.TIME);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package me.wcy.htmltext;
+
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.style.ImageSpan;
+import android.widget.TextView;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.wcy.htmltext.span.TableSpan;
+
+/**
+ * Every TextView showing one rendered document.<br>
+ * Images of the document refresh through this callback instead of a captured TextView,
+ * so the same Spanned can be attached to several views at once.
+ */
+class DrawableHosts implements Drawable.Callback {
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private final List<WeakReference<TextView>> hosts = new ArrayList<>();
+    /**
+     * Span drawing each drawable, the ImageSpan or the TableSpan with the image in a cell.
+     * Spans are shared by the copies TextView makes of the text, so one map serves all hosts.
+     * Built from the text of a host, and again when a drawable is looked up which is not in it.
+     */
+    private final Map<Drawable, Object> spans = new IdentityHashMap<>();
+    /**
+     * Drawables not in the text the spans were last collected from, they don't trigger another collection
+     */
+    private final Set<Drawable> missing = new IdentitySet<>();
+    /**
+     * Set while parts of the document are rendered which are not in the text yet
+     */
+    private boolean updating;
+
+    void add(TextView textView) {
+        for (Iterator<WeakReference<TextView>> it = hosts.iterator(); it.hasNext(); ) {
+            TextView host = it.next().get();
+            if (host == null) {
+                it.remove();
+            } else if (host == textView) {
+                return;
+            }
+        }
+        hosts.add(new WeakReference<>(textView));
+    }
+
+    void remove(TextView textView) {
+        for (Iterator<WeakReference<TextView>> it = hosts.iterator(); it.hasNext(); ) {
+            TextView host = it.next().get();
+            if (host == null || host == textView) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Parts of the document are being rendered, their images change before their spans are in the text.
+     * Until {@link #endUpdate()} size changes and invalidations are dropped, the text the parts go into
+     * is laid out with the bounds of their images then.
+     */
+    void beginUpdate() {
+        updating = true;
+    }
+
+    /**
+     * The rendered parts are in the text, their spans are collected on the next look up
+     */
+    void endUpdate() {
+        updating = false;
+        spans.clear();
+        missing.clear();
+    }
+
+    /**
+     * Bounds of an image changed, hosts lay out again the paragraph holding it.<br>
+     * The span is set again at the same range, so the layout reflows that paragraph only.
+     * For an image in a table the table span is set again. A host not showing the image is left alone.
+     */
+    void onSizeChanged(Drawable who) {
+        if (updating) {
+            return;
+        }
+        for (Iterator<WeakReference<TextView>> it = hosts.iterator(); it.hasNext(); ) {
+            TextView host = it.next().get();
+            if (host == null) {
+                it.remove();
+                continue;
+            }
+            CharSequence text = host.getText();
+            Object span = (text instanceof Spanned) ? findSpan((Spanned) text, who) : null;
+            if (span == null) {
+                continue;
+            }
+            if (text instanceof Spannable) {
+                Spannable spannable = (Spannable) text;
+                spannable.setSpan(span, spannable.getSpanStart(span), spannable.getSpanEnd(span),
+                        spannable.getSpanFlags(span));
+            } else {
+                // set from outside without a spannable buffer, its layout can't reflow a part
+                host.setText(text);
+            }
+        }
+    }
+
+    /**
+     * Invalidate the bounds of the drawables which are in the visible part of an attached host.
+     * Spans are taken from the map, a frame costs the number of animated drawables, not of images.
+     *
+     * @param visible receives the drawables which are visible
+     * @return whether any host is left, attached or not
+     */
+    boolean invalidateVisible(Set<Drawable> drawables, Set<Drawable> visible) {
+        Rect visibleRect = new Rect();
+        Rect bounds = new Rect();
+        for (Iterator<WeakReference<TextView>> it = hosts.iterator(); it.hasNext(); ) {
+            TextView host = it.next().get();
+            if (host == null) {
+                it.remove();
+                continue;
+            }
+            Layout layout = host.getLayout();
+            CharSequence text = host.getText();
+            if (host.getWindowToken() == null || !host.isShown() || layout == null || !(text instanceof Spanned)
+                    || !host.getLocalVisibleRect(visibleRect)) {
+                continue;
+            }
+            Spanned spanned = (Spanned) text;
+            for (Drawable drawable : drawables) {
+                Object span = findSpan(spanned, drawable);
+                if (span == null) {
+                    continue;
+                }
+                getSpanRect(host, layout, spanned, span, bounds);
+                if (isVisible(host, visibleRect, bounds)) {
+                    visible.add(drawable);
+                    host.invalidate(bounds.left, bounds.top, bounds.right, bounds.bottom);
+                }
+            }
+        }
+        return !hosts.isEmpty();
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        if (updating) {
+            return;
+        }
+        Rect bounds = new Rect();
+        for (Iterator<WeakReference<TextView>> it = hosts.iterator(); it.hasNext(); ) {
+            TextView host = it.next().get();
+            if (host == null) {
+                it.remove();
+                continue;
+            }
+            Layout layout = host.getLayout();
+            CharSequence text = host.getText();
+            Object span = (text instanceof Spanned) ? findSpan((Spanned) text, who) : null;
+            if (layout == null || span == null) {
+                host.invalidate();
+            } else {
+                getSpanRect(host, layout, (Spanned) text, span, bounds);
+                host.invalidate(bounds.left, bounds.top, bounds.right, bounds.bottom);
+            }
+        }
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        sHandler.postAtTime(what, who, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+        sHandler.removeCallbacks(what, who);
+    }
+
+    /**
+     * The span of the text drawing the drawable, the ImageSpan or the TableSpan with the image in a cell,
+     * null if the text has none
+     */
+    private Object findSpan(Spanned spanned, Drawable drawable) {
+        Object span = spans.get(drawable);
+        if (span != null && spanned.getSpanStart(span) >= 0) {
+            return span;
+        }
+        if (missing.contains(drawable)) {
+            return null;
+        }
+        // images were added or the text is new, collect the spans again
+        indexSpans(spanned);
+        span = spans.get(drawable);
+        if (span != null && spanned.getSpanStart(span) >= 0) {
+            return span;
+        }
+        missing.add(drawable);
+        return null;
+    }
+
+    private void indexSpans(Spanned spanned) {
+        spans.clear();
+        missing.clear();
+        for (ImageSpan span : spanned.getSpans(0, spanned.length(), ImageSpan.class)) {
+            spans.put(span.getDrawable(), span);
+        }
+        for (TableSpan table : spanned.getSpans(0, spanned.length(), TableSpan.class)) {
+            for (ImageSpan span : table.getImages()) {
+                spans.put(span.getDrawable(), table);
+            }
+        }
+    }
+
+    /**
+     * The line holding the span as wide as the image or the table, in content coordinates of the host
+     */
+    private static void getSpanRect(TextView host, Layout layout, Spanned spanned, Object span, Rect bounds) {
+        int start = spanned.getSpanStart(span);
+        int width = (span instanceof TableSpan) ? ((TableSpan) span).getWidth()
+                : ((ImageSpan) span).getDrawable().getBounds().width();
+        int line = layout.getLineForOffset(start);
+        int left = host.getTotalPaddingLeft() + (int) layout.getPrimaryHorizontal(start);
+        int top = host.getTotalPaddingTop() + layout.getLineTop(line);
+        bounds.set(left, top, left + width, host.getTotalPaddingTop() + layout.getLineBottom(line));
+    }
+
+    /**
+     * Whether bounds in content coordinates intersect the visible rect of the host
+     */
+    private static boolean isVisible(TextView host, Rect visibleRect, Rect bounds) {
+        return visibleRect.intersects(bounds.left - host.getScrollX(), bounds.top - host.getScrollY(),
+                bounds.right - host.getScrollX(), bounds.bottom - host.getScrollY());
+    }
+
+    /**
+     * Attach the TextView to the document, it is detached from the document shown before
+     */
+    static void attach(TextView textView, DrawableHosts hosts) {
+        Object old = textView.getTag(R.id.html_text_hosts);
+        if (old instanceof DrawableHosts && old != hosts) {
+            ((DrawableHosts) old).remove(textView);
+        }
+        if (hosts != null) {
+            hosts.add(textView);
+        }
+        textView.setTag(R.id.html_text_hosts, hosts);
+    }
+}
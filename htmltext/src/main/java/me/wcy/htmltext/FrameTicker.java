@@ -0,0 +1,332 @@
+package me.wcy.htmltext;
+
+import android.annotation.TargetApi;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drives every animated image from one callback on the main thread.<br>
+ * Animated drawables schedule their frames and invalidate through their ImageDrawable, which forwards here.
+ * Once per frame the due images are checked against the visible part of their TextViews: visible ones
+ * advance and invalidate only their own bounds, the others are paused and checked again now and then.
+ * Frames are aligned to vsync with Choreographer since api 16, a Handler is used before.
+ * All state is confined to the main thread, calls from other threads are posted to it.
+ */
+class FrameTicker {
+    /**
+     * Paused images are checked for visibility at this interval
+     */
+    private static final long PAUSED_CHECK_MILLIS = 250;
+
+    private static final FrameTicker sInstance = new FrameTicker();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /**
+     * Frames of each image, an image rarely has more than one
+     */
+    private final Map<HtmlImageGetter.ImageDrawable, List<Frame>> scheduled = new IdentityHashMap<>();
+    /**
+     * Images which invalidated themselves since the last frame
+     */
+    private final Set<Drawable> dirty = new IdentitySet<>();
+    /**
+     * Running Animatables stopped because they are not visible
+     */
+    private final Set<Drawable> stopped = new IdentitySet<>();
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+    private Object choreographerCallback;
+    private boolean posted;
+    private long postedTime;
+    /**
+     * Set while images advance, the next frame is posted once at the end
+     */
+    private boolean inFrame;
+
+    private static class Frame {
+        final Runnable what;
+        long when;
+
+        Frame(Runnable what, long when) {
+            this.what = what;
+            this.when = when;
+        }
+    }
+
+    static FrameTicker get() {
+        return sInstance;
+    }
+
+    void schedule(final HtmlImageGetter.ImageDrawable drawable, final Runnable what, final long when) {
+        if (!isMainThread()) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    schedule(drawable, what, when);
+                }
+            });
+            return;
+        }
+        List<Frame> frames = scheduled.get(drawable);
+        if (frames == null) {
+            frames = new ArrayList<>(1);
+            scheduled.put(drawable, frames);
+        }
+        Frame frame = null;
+        for (Frame f : frames) {
+            if (f.what == what) {
+                frame = f;
+                break;
+            }
+        }
+        if (frame != null) {
+            frame.when = when;
+        } else {
+            frames.add(new Frame(what, when));
+        }
+        if (!inFrame) {
+            post(when);
+        }
+    }
+
+    /**
+     * @param what null for all frames of the image
+     */
+    void unschedule(final HtmlImageGetter.ImageDrawable drawable, final Runnable what) {
+        if (!isMainThread()) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    unschedule(drawable, what);
+                }
+            });
+            return;
+        }
+        if (what == null) {
+            scheduled.remove(drawable);
+            return;
+        }
+        List<Frame> frames = scheduled.get(drawable);
+        if (frames == null) {
+            return;
+        }
+        for (Iterator<Frame> it = frames.iterator(); it.hasNext(); ) {
+            if (it.next().what == what) {
+                it.remove();
+            }
+        }
+        if (frames.isEmpty()) {
+            scheduled.remove(drawable);
+        }
+    }
+
+    void invalidate(final HtmlImageGetter.ImageDrawable drawable) {
+        if (!isMainThread()) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    invalidate(drawable);
+                }
+            });
+            return;
+        }
+        dirty.add(drawable);
+        if (!inFrame) {
+            post(SystemClock.uptimeMillis());
+        }
+    }
+
+    /**
+     * The image no longer shows an animated drawable
+     */
+    void remove(final HtmlImageGetter.ImageDrawable drawable) {
+        if (!isMainThread()) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    remove(drawable);
+                }
+            });
+            return;
+        }
+        scheduled.remove(drawable);
+        dirty.remove(drawable);
+        stopped.remove(drawable);
+    }
+
+    private boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private void doFrame() {
+        posted = false;
+        long now = SystemClock.uptimeMillis();
+
+        // images to check this frame, grouped by the views they are shown in
+        Map<DrawableHosts, Set<Drawable>> candidates = new IdentityHashMap<>();
+        for (Map.Entry<HtmlImageGetter.ImageDrawable, List<Frame>> entry : scheduled.entrySet()) {
+            for (Frame frame : entry.getValue()) {
+                if (frame.when <= now) {
+                    addCandidate(candidates, entry.getKey());
+                    break;
+                }
+            }
+        }
+        for (Drawable drawable : dirty) {
+            addCandidate(candidates, (HtmlImageGetter.ImageDrawable) drawable);
+        }
+        for (Drawable drawable : stopped) {
+            addCandidate(candidates, (HtmlImageGetter.ImageDrawable) drawable);
+        }
+        Set<Drawable> visible = new IdentitySet<>();
+        Set<Drawable> alive = new IdentitySet<>();
+        for (Map.Entry<DrawableHosts, Set<Drawable>> entry : candidates.entrySet()) {
+            if (entry.getKey().invalidateVisible(entry.getValue(), visible)) {
+                alive.addAll(entry.getValue());
+            }
+        }
+
+        List<Runnable> due = new ArrayList<>();
+        for (Iterator<Map.Entry<HtmlImageGetter.ImageDrawable, List<Frame>>> it = scheduled.entrySet().iterator();
+             it.hasNext(); ) {
+            Map.Entry<HtmlImageGetter.ImageDrawable, List<Frame>> entry = it.next();
+            Drawable drawable = entry.getKey();
+            List<Frame> frames = entry.getValue();
+            for (Iterator<Frame> frameIt = frames.iterator(); frameIt.hasNext(); ) {
+                Frame frame = frameIt.next();
+                if (frame.when > now) {
+                    continue;
+                }
+                if (visible.contains(drawable)) {
+                    frameIt.remove();
+                    due.add(frame.what);
+                } else if (alive.contains(drawable)) {
+                    // paused, keeps its frame until it is visible again
+                    frame.when = now + PAUSED_CHECK_MILLIS;
+                } else {
+                    // no view shows the document anymore
+                    frameIt.remove();
+                }
+            }
+            if (frames.isEmpty()) {
+                it.remove();
+            }
+        }
+        for (Iterator<Drawable> it = stopped.iterator(); it.hasNext(); ) {
+            Drawable drawable = it.next();
+            if (visible.contains(drawable) || !alive.contains(drawable)) {
+                it.remove();
+                if (visible.contains(drawable)) {
+                    ((HtmlImageGetter.ImageDrawable) drawable).startAnimation();
+                }
+            }
+        }
+        for (Drawable drawable : dirty) {
+            if (!visible.contains(drawable) && alive.contains(drawable)
+                    && ((HtmlImageGetter.ImageDrawable) drawable).stopAnimation()) {
+                // animates by itself, stop it until it is visible again
+                stopped.add(drawable);
+            }
+        }
+        dirty.clear();
+
+        // advancing schedules the next frames and invalidates, the bounds are invalidated already
+        inFrame = true;
+        try {
+            for (Runnable what : due) {
+                what.run();
+            }
+        } finally {
+            inFrame = false;
+        }
+        dirty.removeAll(visible);
+
+        long next = Long.MAX_VALUE;
+        for (List<Frame> frames : scheduled.values()) {
+            for (Frame frame : frames) {
+                next = Math.min(next, frame.when);
+            }
+        }
+        if (!dirty.isEmpty()) {
+            next = now;
+        }
+        if (!stopped.isEmpty()) {
+            next = Math.min(next, now + PAUSED_CHECK_MILLIS);
+        }
+        if (next != Long.MAX_VALUE) {
+            post(next);
+        }
+    }
+
+    private static void addCandidate(Map<DrawableHosts, Set<Drawable>> candidates,
+                                     HtmlImageGetter.ImageDrawable drawable) {
+        Set<Drawable> drawables = candidates.get(drawable.getHosts());
+        if (drawables == null) {
+            drawables = new IdentitySet<>();
+            candidates.put(drawable.getHosts(), drawables);
+        }
+        drawables.add(drawable);
+    }
+
+    private void post(long when) {
+        if (posted && postedTime <= when) {
+            return;
+        }
+        cancel();
+        posted = true;
+        postedTime = when;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback(Math.max(when - SystemClock.uptimeMillis(), 0));
+        } else {
+            handler.postAtTime(tick, when);
+        }
+    }
+
+    private void cancel() {
+        if (!posted) {
+            return;
+        }
+        posted = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            removeFrameCallback();
+        } else {
+            handler.removeCallbacks(tick);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback(long delayMillis) {
+        if (choreographerCallback == null) {
+            choreographerCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    tick.run();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallbackDelayed((Choreographer.FrameCallback) choreographerCallback,
+                delayMillis);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void removeFrameCallback() {
+        if (choreographerCallback != null) {
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) choreographerCallback);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package me.wcy.htmltext;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 已渲染文本的磁盘缓存<br>
+ * 以源文本和渲染配置为 key，命中时跳过 HTML 解析，最近使用的文档同时保留在内存中
+ */
+public class HtmlDocumentCache {
+    private static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+    private static final long MEMORY_MAX_SIZE = 1024 * 1024;
+    private static final String SUFFIX = ".htxt";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Executor sWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HtmlDocumentCache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File dir;
+    private final long maxSize;
+    /**
+     * Documents used last, a document shown again (as by a recycled list item) is not read from disk
+     */
+    private final Map<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memorySize;
+
+    /**
+     * @param dir 缓存目录，如 new File(context.getCacheDir(), "html-text")
+     */
+    public HtmlDocumentCache(File dir) {
+        this(dir, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize 缓存目录最大字节数
+     */
+    public HtmlDocumentCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+            memorySize = 0;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    byte[] get(String key) {
+        synchronized (memory) {
+            byte[] data = memory.get(key);
+            if (data != null) {
+                return data;
+            }
+        }
+        File file = new File(dir, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) > 0) {
+                offset += read;
+            }
+            if (offset != data.length) {
+                return null;
+            }
+            // keep recently used documents when trimming
+            file.setLastModified(System.currentTimeMillis());
+            remember(key, data);
+            return data;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    void remove(String key) {
+        synchronized (memory) {
+            byte[] data = memory.remove(key);
+            if (data != null) {
+                memorySize -= data.length;
+            }
+        }
+        new File(dir, key + SUFFIX).delete();
+    }
+
+    /**
+     * Written on a background thread, the file appears atomically by renaming
+     */
+    void put(final String key, final byte[] data) {
+        remember(key, data);
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    return;
+                }
+                File tmp = new File(dir, key + ".tmp");
+                OutputStream out = null;
+                try {
+                    out = new FileOutputStream(tmp);
+                    out.write(data);
+                    out.close();
+                    out = null;
+                    if (!tmp.renameTo(new File(dir, key + SUFFIX))) {
+                        tmp.delete();
+                    }
+                } catch (IOException e) {
+                    tmp.delete();
+                } finally {
+                    closeQuietly(out);
+                }
+                trim();
+            }
+        });
+    }
+
+    private void remember(String key, byte[] data) {
+        long limit = Math.min(MEMORY_MAX_SIZE, maxSize);
+        if (data.length > limit) {
+            return;
+        }
+        synchronized (memory) {
+            byte[] old = memory.put(key, data);
+            memorySize += data.length - ((old != null) ? old.length : 0);
+            // least recently used first
+            for (Iterator<byte[]> it = memory.values().iterator(); memorySize > limit && it.hasNext(); ) {
+                memorySize -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    private void trim() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // only documents count, other files in the directory are not ours
+        List<File> documents = new ArrayList<>();
+        long size = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                documents.add(file);
+                size += file.length();
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        // oldest first
+        Collections.sort(documents, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+            }
+        });
+        for (File file : documents) {
+            if (size <= maxSize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    /**
+     * Digest of the source and everything the rendered spans depend on
+     */
+    static String key(String source, String config) {
+        try {
+            return key(digest(ByteBuffer.wrap(source.getBytes("UTF-8"))), config);
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Same key as for the source decoded from these UTF-8 bytes
+     *
+     * @param contentDigest {@link #digest(ByteBuffer)} of the source
+     */
+    static String key(byte[] contentDigest, String config) {
+        if (contentDigest == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(config.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(contentDigest);
+            digest.update((byte) SpannedCodec.VERSION);
+            byte[] bytes = digest.digest();
+            char[] hex = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Digest of UTF-8 source bytes, hashed as they are without decoding
+     */
+    static byte[] digest(ByteBuffer bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(bytes);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package me.wcy.htmltext;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.ReplacementSpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.wcy.htmltext.span.EmojiSpan;
+
+/**
+ * 表情替换，如 :smile: 替换为精灵图中的表情图片<br>
+ * 所有表情码一次扫描完成，同一张精灵图的表情共用同一个 Bitmap，可在多个文本间复用
+ */
+public class HtmlEmoji {
+    private final List<String> codes = new ArrayList<>();
+    private final List<EmojiSpan.Sheet> sheets = new ArrayList<>();
+    private final List<Rect> cells = new ArrayList<>();
+    private final Map<Bitmap, EmojiSpan.Sheet> sheetMap = new IdentityHashMap<>();
+    /**
+     * Built on first use after a change of the codes
+     */
+    private AhoCorasick matcher;
+
+    /**
+     * 注册精灵图，codes 按从左到右、从上到下的顺序对应每一格，null 或空字符串的格子跳过
+     */
+    public HtmlEmoji addSheet(Bitmap sheet, int columns, int rows, String... codes) {
+        int cellWidth = sheet.getWidth() / columns;
+        int cellHeight = sheet.getHeight() / rows;
+        for (int i = 0; i < codes.length && i < columns * rows; i++) {
+            if (!TextUtils.isEmpty(codes[i])) {
+                int left = (i % columns) * cellWidth;
+                int top = (i / columns) * cellHeight;
+                add(codes[i], sheet, new Rect(left, top, left + cellWidth, top + cellHeight));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 注册一个表情，图片为精灵图中 bounds 的区域
+     */
+    public synchronized HtmlEmoji add(String code, Bitmap sheet, Rect bounds) {
+        if (TextUtils.isEmpty(code)) {
+            return this;
+        }
+        EmojiSpan.Sheet shared = sheetMap.get(sheet);
+        if (shared == null) {
+            shared = new EmojiSpan.Sheet(sheet);
+            sheetMap.put(sheet, shared);
+        }
+        codes.add(code);
+        sheets.add(shared);
+        cells.add(new Rect(bounds));
+        matcher = null;
+        return this;
+    }
+
+    /**
+     * 注册一个表情，图片为整张 bitmap
+     */
+    public HtmlEmoji add(String code, Bitmap bitmap) {
+        return add(code, bitmap, new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight()));
+    }
+
+    /**
+     * Replace the codes in the text, except inside images and other replaced text
+     */
+    void replace(Spannable text) {
+        AhoCorasick matcher = getMatcher();
+        if (matcher == null) {
+            return;
+        }
+        // ranges already drawn by a replacement, in text order
+        ReplacementSpan[] replacements = text.getSpans(0, text.length(), ReplacementSpan.class);
+        int[] skipStarts = new int[replacements.length];
+        int[] skipEnds = new int[replacements.length];
+        for (int i = 0; i < replacements.length; i++) {
+            skipStarts[i] = text.getSpanStart(replacements[i]);
+            skipEnds[i] = text.getSpanEnd(replacements[i]);
+        }
+        Arrays.sort(skipStarts);
+        Arrays.sort(skipEnds);
+
+        int from = 0;
+        for (int i = 0; i <= replacements.length; i++) {
+            int to = (i < replacements.length) ? skipStarts[i] : text.length();
+            if (to > from) {
+                int[] matches = matcher.match(text, from, to);
+                for (int m = 0; m < matches.length; m += 3) {
+                    int code = matches[m + 2];
+                    text.setSpan(new EmojiSpan(sheets.get(code), cells.get(code)), matches[m], matches[m + 1],
+                            Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+            }
+            if (i < replacements.length) {
+                from = Math.max(from, skipEnds[i]);
+            }
+        }
+    }
+
+    private synchronized AhoCorasick getMatcher() {
+        if (matcher == null && !codes.isEmpty()) {
+            matcher = new AhoCorasick(codes);
+        }
+        return matcher;
+    }
+}
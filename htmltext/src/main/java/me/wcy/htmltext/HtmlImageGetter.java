@@ -1,15 +1,24 @@
 package me.wcy.htmltext;
 
+import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.AnimationDrawable;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.text.Html;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,24 +27,84 @@ class HtmlImageGetter implements Html.ImageGetter {
     private static final Pattern IMAGE_TAG_PATTERN = Pattern.compile(IMAGE_TAG_REGULAR);
     private static final Pattern IMAGE_WIDTH_PATTERN = Pattern.compile("(width|WIDTH)\\s*=\\s*\"?(\\w+)\"?");
     private static final Pattern IMAGE_HEIGHT_PATTERN = Pattern.compile("(height|HEIGHT)\\s*=\\s*\"?(\\w+)\"?");
+    private static final Pattern IMAGE_THUMB_PATTERN =
+            Pattern.compile("data-thumb\\s*=\\s*[\"']([^\"']+)[\"']", Pattern.CASE_INSENSITIVE);
+    private static final Pattern IMAGE_BLUR_HASH_PATTERN =
+            Pattern.compile("data-blurhash\\s*=\\s*[\"']([^\"']+)[\"']", Pattern.CASE_INSENSITIVE);
 
-    private TextView textView;
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private Context context;
+    private Resources resources;
+    private DrawableHosts hosts;
     private HtmlImageLoader imageLoader;
     private List<ImageSize> imageSizeList;
     private int index;
+    /**
+     * Drawables of images removed by an incremental render, reused for the same source and size
+     */
+    private Map<String, List<ImageDrawable>> recycledDrawables;
+    /**
+     * Parsing is aborted after this uptime, 0 for no limit
+     */
+    private long deadline;
+    /**
+     * Whether file, asset and res images are decoded, data images always are
+     */
+    private boolean localImageEnabled;
+    /**
+     * The loader's placeholders are fetched once per document, images get their own drawables
+     * from the shared ConstantState
+     */
+    private Drawable.ConstantState defaultState;
+    private Drawable.ConstantState errorState;
+    private boolean defaultFetched;
+    private boolean errorFetched;
 
     public HtmlImageGetter() {
         imageSizeList = new ArrayList<>();
+        hosts = new DrawableHosts();
     }
 
     public void setTextView(TextView textView) {
-        this.textView = textView;
+        this.context = textView.getContext().getApplicationContext();
+        this.resources = textView.getResources();
+    }
+
+    /**
+     * Share the hosts with the other parts of an incrementally rendered document
+     */
+    public void setHosts(DrawableHosts hosts) {
+        this.hosts = hosts;
+    }
+
+    public void setRecycledDrawables(Map<String, List<ImageDrawable>> recycledDrawables) {
+        this.recycledDrawables = recycledDrawables;
+    }
+
+    public Map<String, List<ImageDrawable>> getRecycledDrawables() {
+        return recycledDrawables;
+    }
+
+    /**
+     * TextViews showing the images of this document
+     */
+    public DrawableHosts getHosts() {
+        return hosts;
     }
 
     public void setImageLoader(HtmlImageLoader imageLoader) {
         this.imageLoader = imageLoader;
     }
 
+    public void setLocalImageEnabled(boolean localImageEnabled) {
+        this.localImageEnabled = localImageEnabled;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
     public void getImageSize(String source) {
         Matcher imageMatcher = IMAGE_TAG_PATTERN.matcher(source);
         while (imageMatcher.find()) {
@@ -51,50 +120,219 @@ class HtmlImageGetter implements Html.ImageGetter {
                 height = parseSize(heightMatcher.group(2).trim());
             }
             ImageSize imageSize = new ImageSize(width, height);
+            Matcher thumbMatcher = IMAGE_THUMB_PATTERN.matcher(attrs);
+            if (thumbMatcher.find()) {
+                imageSize.thumb = thumbMatcher.group(1).trim().replace("&amp;", "&");
+            }
+            Matcher blurHashMatcher = IMAGE_BLUR_HASH_PATTERN.matcher(attrs);
+            if (blurHashMatcher.find()) {
+                imageSize.blurHash = blurHashMatcher.group(1).trim();
+            }
             imageSizeList.add(imageSize);
         }
     }
 
+    /**
+     * Size of the next image from a compiled document, instead of scanning the source
+     */
+    public void addImageSize(int width, int height, String thumb, String blurHash) {
+        ImageSize imageSize = new ImageSize(width, height);
+        imageSize.thumb = thumb;
+        imageSize.blurHash = blurHash;
+        imageSizeList.add(imageSize);
+    }
+
+    /**
+     * width and height attributes of the image at position, -1 if absent
+     */
+    public int[] getImageSize(int position) {
+        if (position < imageSizeList.size()) {
+            ImageSize imageSize = imageSizeList.get(position);
+            return new int[]{imageSize.width, imageSize.height};
+        }
+        return new int[]{-1, -1};
+    }
+
+    /**
+     * data-thumb and data-blurhash attributes of the image at position, null if absent
+     */
+    public String[] getImagePreview(int position) {
+        if (position < imageSizeList.size()) {
+            ImageSize imageSize = imageSizeList.get(position);
+            return new String[]{imageSize.thumb, imageSize.blurHash};
+        }
+        return new String[]{null, null};
+    }
+
     @Override
     public Drawable getDrawable(String source) {
+        if (deadline > 0 && SystemClock.uptimeMillis() > deadline) {
+            throw new RenderBudget.ExceededException(RenderBudget.Limit.TIME);
+        }
+
+        ImageDrawable recycled = takeRecycled(source);
+        if (recycled != null) {
+            // already loaded or loading, keep it as is
+            index++;
+            return recycled;
+        }
+
         final ImageDrawable imageDrawable = new ImageDrawable(index++);
+        imageDrawable.setPlaceholder(newPlaceholder(false));
+        loadPreview(imageDrawable);
+
+        if (LocalImageDecoder.canDecode(source, localImageEnabled)) {
+            // inline and local images are decoded here, remote ones are left to the loader
+            LocalImageDecoder.decode(context, source, imageDrawable.getTargetWidth(), createCallback(imageDrawable));
+        } else if (imageLoader != null) {
+            imageLoader.loadImage(source, createCallback(imageDrawable));
+        }
+
+        return imageDrawable;
+    }
 
-        if (imageLoader != null) {
-            imageDrawable.setDrawable(imageLoader.getDefaultDrawable(), false);
-            imageLoader.loadImage(source, new HtmlImageLoader.Callback() {
+    /**
+     * A new instance of the loader's placeholder, from the state shared by all images
+     */
+    private Drawable newPlaceholder(boolean error) {
+        if (imageLoader == null) {
+            return null;
+        }
+        Drawable.ConstantState state = error ? errorState : defaultState;
+        if (state != null) {
+            return state.newDrawable(resources);
+        }
+        boolean fetched = error ? errorFetched : defaultFetched;
+        Drawable drawable = error ? imageLoader.getErrorDrawable() : imageLoader.getDefaultDrawable();
+        if (!fetched) {
+            // without a ConstantState every image asks the loader again, they can't share one instance
+            state = (drawable != null) ? drawable.getConstantState() : null;
+            if (error) {
+                errorFetched = true;
+                errorState = state;
+            } else {
+                defaultFetched = true;
+                defaultState = state;
+            }
+        }
+        return drawable;
+    }
+
+    /**
+     * Show a blur hash or a thumbnail until the image is loaded
+     */
+    private void loadPreview(final ImageDrawable imageDrawable) {
+        ImageSize imageSize = imageDrawable.getImageSize();
+        if (imageSize == null) {
+            return;
+        }
+        if (imageSize.blurHash != null) {
+            int width = BlurHash.SIZE;
+            int height = BlurHash.SIZE;
+            int[] box = imageDrawable.getBoxSize();
+            if (box != null && box[0] > 0 && box[1] > 0) {
+                height = Math.max(1, Math.min(BlurHash.SIZE * 4, BlurHash.SIZE * box[1] / box[0]));
+            }
+            Bitmap bitmap = BlurHash.decode(imageSize.blurHash, width, height);
+            if (bitmap != null) {
+                imageDrawable.setPreview(new BitmapDrawable(resources, bitmap), false);
+                return;
+            }
+        }
+        if (imageSize.thumb != null) {
+            HtmlImageLoader.Callback callback = new HtmlImageLoader.Callback() {
                 @Override
                 public void onLoadComplete(final Bitmap bitmap) {
                     runOnUi(new Runnable() {
                         @Override
                         public void run() {
-                            Drawable drawable = new BitmapDrawable(textView.getResources(), bitmap);
-                            imageDrawable.setDrawable(drawable, true);
-                            textView.setText(textView.getText());
+                            imageDrawable.setPreview(new BitmapDrawable(resources, bitmap), true);
                         }
                     });
                 }
 
                 @Override
-                public void onLoadFailed() {
+                public void onDrawableLoadComplete(final Drawable drawable) {
                     runOnUi(new Runnable() {
                         @Override
                         public void run() {
-                            imageDrawable.setDrawable(imageLoader.getErrorDrawable(), false);
-                            textView.setText(textView.getText());
+                            imageDrawable.setPreview(drawable, true);
                         }
                     });
                 }
-            });
+
+                @Override
+                public void onLoadFailed() {
+                    // the placeholder stays
+                }
+            };
+            if (LocalImageDecoder.canDecode(imageSize.thumb, localImageEnabled)) {
+                LocalImageDecoder.decode(context, imageSize.thumb, 0, callback);
+            } else if (imageLoader != null) {
+                imageLoader.loadImage(imageSize.thumb, callback);
+            }
         }
+    }
 
-        return imageDrawable;
+    private HtmlImageLoader.Callback createCallback(final ImageDrawable imageDrawable) {
+        return new HtmlImageLoader.Callback() {
+            @Override
+            public void onLoadComplete(final Bitmap bitmap) {
+                runOnUi(new Runnable() {
+                    @Override
+                    public void run() {
+                        Drawable drawable = new BitmapDrawable(resources, bitmap);
+                        imageDrawable.setDrawable(drawable, true);
+                    }
+                });
+            }
+
+            @Override
+            public void onDrawableLoadComplete(final Drawable drawable) {
+                runOnUi(new Runnable() {
+                    @Override
+                    public void run() {
+                        imageDrawable.setDrawable(drawable, true);
+                    }
+                });
+            }
+
+            @Override
+            public void onLoadFailed() {
+                runOnUi(new Runnable() {
+                    @Override
+                    public void run() {
+                        imageDrawable.setDrawable(newPlaceholder(true), false);
+                    }
+                });
+            }
+        };
+    }
+
+    private ImageDrawable takeRecycled(String source) {
+        if (recycledDrawables == null) {
+            return null;
+        }
+        List<ImageDrawable> drawables = recycledDrawables.get(source);
+        if (drawables == null) {
+            return null;
+        }
+        ImageSize imageSize = (imageSizeList.size() > index) ? imageSizeList.get(index) : null;
+        for (Iterator<ImageDrawable> it = drawables.iterator(); it.hasNext(); ) {
+            ImageDrawable drawable = it.next();
+            if (ImageSize.equals(drawable.getImageSize(), imageSize)) {
+                it.remove();
+                return drawable;
+            }
+        }
+        return null;
     }
 
     private void runOnUi(Runnable r) {
         if (Looper.myLooper() == Looper.getMainLooper()) {
             r.run();
         } else {
-            textView.post(r);
+            sHandler.post(r);
         }
     }
 
@@ -109,6 +347,8 @@ class HtmlImageGetter implements Html.ImageGetter {
     private static class ImageSize {
         private final int width;
         private final int height;
+        private String thumb;
+        private String blurHash;
 
         public ImageSize(int width, int height) {
             this.width = width;
@@ -118,43 +358,135 @@ class HtmlImageGetter implements Html.ImageGetter {
         public boolean valid() {
             return width >= 0 && height >= 0;
         }
+
+        static boolean equals(ImageSize s1, ImageSize s2) {
+            boolean valid1 = s1 != null && s1.valid();
+            boolean valid2 = s2 != null && s2.valid();
+            if (!valid1 || !valid2) {
+                return valid1 == valid2;
+            }
+            return s1.width == s2.width && s1.height == s2.height;
+        }
     }
 
-    private class ImageDrawable extends BitmapDrawable {
+    /**
+     * Animated drawables are driven by {@link FrameTicker} through this callback
+     */
+    class ImageDrawable extends BitmapDrawable implements Drawable.Callback {
         // img 标签出现的位置
         private final int position;
+        // keep a strong reference, drawable callbacks are weak references
+        private final DrawableHosts mHosts;
         private Drawable mDrawable;
+        /**
+         * Set once the image or the error drawable is shown
+         */
+        private boolean mComplete;
 
         public ImageDrawable(int position) {
             super();
             this.position = position;
+            mHosts = hosts;
+            setCallback(mHosts);
         }
 
-        public void setDrawable(Drawable drawable, boolean fitSize) {
-            mDrawable = drawable;
+        DrawableHosts getHosts() {
+            return mHosts;
+        }
+
+        ImageSize getImageSize() {
+            return (imageSizeList.size() > position) ? imageSizeList.get(position) : null;
+        }
+
+        /**
+         * Width the image will be shown at, local images are decoded down to it
+         */
+        int getTargetWidth() {
+            ImageSize imageSize = getImageSize();
+            if (imageSize != null && imageSize.valid()) {
+                return dp2px(imageSize.width);
+            }
+            int maxWidth = (imageLoader == null) ? 0 : imageLoader.getMaxWidth();
+            return (maxWidth > 0) ? maxWidth : resources.getDisplayMetrics().widthPixels;
+        }
+
+        /**
+         * Size of the image from its width and height attributes, null if absent
+         */
+        int[] getBoxSize() {
+            ImageSize imageSize = getImageSize();
+            if (imageSize == null || !imageSize.valid()) {
+                return null;
+            }
+            return fit(dp2px(imageSize.width), dp2px(imageSize.height));
+        }
 
-            if (mDrawable == null) {
-                setBounds(0, 0, 0, 0);
+        /**
+         * Placeholder while loading, laid out at the size of the image already if the attributes tell it
+         */
+        public void setPlaceholder(Drawable placeholder) {
+            if (placeholder == null) {
+                return;
+            }
+            int[] box = getBoxSize();
+            if (box == null) {
+                int[] size = fit(placeholder.getIntrinsicWidth(), placeholder.getIntrinsicHeight());
+                show(placeholder, 0, 0, size[0], size[1]);
+            } else {
+                showCentered(placeholder, box[0], box[1], true);
+            }
+        }
+
+        /**
+         * Blur hash or thumbnail until the image is loaded, ignored once it is
+         *
+         * @param keepAspect false for a preview with no aspect of its own, it fills the image
+         */
+        public void setPreview(Drawable preview, boolean keepAspect) {
+            if (mComplete || preview == null) {
+                return;
+            }
+            int[] box = getBoxSize();
+            boolean fitWidth = imageLoader != null && imageLoader.fitWidth() && imageLoader.getMaxWidth() > 0;
+            if (box == null && keepAspect && fitWidth) {
+                // the image will be as wide as the text, a thumbnail tells its height
+                box = fit(preview.getIntrinsicWidth(), preview.getIntrinsicHeight());
+            }
+            if (box != null) {
+                show(preview, 0, 0, box[0], box[1]);
+            } else {
+                // size unknown until the image is loaded, keep the placeholder's to not layout again
+                Rect bounds = getBounds();
+                showCentered(preview, bounds.width(), bounds.height(), keepAspect);
+            }
+        }
+
+        public void setDrawable(Drawable drawable, boolean fitSize) {
+            mComplete = true;
+            if (drawable == null) {
+                show(null, 0, 0, 0, 0);
                 return;
             }
 
-            int maxWidth = (imageLoader == null) ? 0 : imageLoader.getMaxWidth();
-            boolean fitWidth = imageLoader != null && imageLoader.fitWidth();
             int width, height;
-            if (fitSize) { // real image
-                ImageSize imageSize = (imageSizeList.size() > position) ? imageSizeList.get(position) : null;
-                if (imageSize != null && imageSize.valid()) {
-                    width = dp2px(imageSize.width);
-                    height = dp2px(imageSize.height);
-                } else {
-                    width = mDrawable.getIntrinsicWidth();
-                    height = mDrawable.getIntrinsicHeight();
-                }
-            } else { // placeholder image
-                width = mDrawable.getIntrinsicWidth();
-                height = mDrawable.getIntrinsicHeight();
+            ImageSize imageSize = getImageSize();
+            if (fitSize && imageSize != null && imageSize.valid()) { // real image
+                width = dp2px(imageSize.width);
+                height = dp2px(imageSize.height);
+            } else { // error image or real image without size
+                width = drawable.getIntrinsicWidth();
+                height = drawable.getIntrinsicHeight();
             }
+            int[] size = fit(width, height);
+            show(drawable, 0, 0, size[0], size[1]);
+        }
 
+        /**
+         * Scale down to the max width, or up if the images should fit it
+         */
+        private int[] fit(int width, int height) {
+            int maxWidth = (imageLoader == null) ? 0 : imageLoader.getMaxWidth();
+            boolean fitWidth = imageLoader != null && imageLoader.fitWidth();
             if (width > 0 && height > 0) {
                 // too large or should fit width
                 if (maxWidth > 0 && (width > maxWidth || fitWidth)) {
@@ -162,9 +494,55 @@ class HtmlImageGetter implements Html.ImageGetter {
                     width = maxWidth;
                 }
             }
+            return new int[]{width, height};
+        }
+
+        /**
+         * Show the drawable in the middle of a width x height image, at most at its own size
+         */
+        private void showCentered(Drawable drawable, int width, int height, boolean keepAspect) {
+            int drawableWidth = drawable.getIntrinsicWidth();
+            int drawableHeight = drawable.getIntrinsicHeight();
+            if (!keepAspect || drawableWidth <= 0 || drawableHeight <= 0) {
+                drawableWidth = width;
+                drawableHeight = height;
+            } else {
+                float scale = Math.min(1f, Math.min((float) width / drawableWidth, (float) height / drawableHeight));
+                drawableWidth = (int) (drawableWidth * scale);
+                drawableHeight = (int) (drawableHeight * scale);
+            }
+            int left = (width - drawableWidth) / 2;
+            int top = (height - drawableHeight) / 2;
+            showIn(drawable, left, top, left + drawableWidth, top + drawableHeight, width, height);
+        }
+
+        private void show(Drawable drawable, int left, int top, int right, int bottom) {
+            showIn(drawable, left, top, right, bottom, right, bottom);
+        }
+
+        private void showIn(Drawable drawable, int left, int top, int right, int bottom, int width, int height) {
+            if (mDrawable != drawable && mDrawable instanceof Animatable) {
+                ((Animatable) mDrawable).stop();
+                mDrawable.setCallback(null);
+                FrameTicker.get().remove(this);
+            }
+            mDrawable = drawable;
 
-            mDrawable.setBounds(0, 0, width, height);
-            setBounds(0, 0, width, height);
+            if (mDrawable != null) {
+                mDrawable.setBounds(left, top, right, bottom);
+                if (mDrawable instanceof Animatable) {
+                    mDrawable.setCallback(this);
+                    ((Animatable) mDrawable).start();
+                }
+            }
+            Rect bounds = getBounds();
+            if (bounds.width() == width && bounds.height() == height) {
+                // same size, no need to layout again
+                invalidateSelf();
+            } else {
+                setBounds(0, 0, width, height);
+                mHosts.onSizeChanged(this);
+            }
         }
 
         @Override
@@ -182,8 +560,47 @@ class HtmlImageGetter implements Html.ImageGetter {
             }
         }
 
+        void startAnimation() {
+            if (mDrawable instanceof Animatable) {
+                ((Animatable) mDrawable).start();
+            }
+        }
+
+        /**
+         * Stop an Animatable which animates by itself, instead of through scheduled frames
+         *
+         * @return whether it was running
+         */
+        boolean stopAnimation() {
+            if (mDrawable instanceof Animatable && !(mDrawable instanceof AnimationDrawable)
+                    && ((Animatable) mDrawable).isRunning()) {
+                ((Animatable) mDrawable).stop();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void invalidateDrawable(Drawable who) {
+            if (who == mDrawable) {
+                FrameTicker.get().invalidate(this);
+            }
+        }
+
+        @Override
+        public void scheduleDrawable(Drawable who, Runnable what, long when) {
+            if (who == mDrawable) {
+                FrameTicker.get().schedule(this, what, when);
+            }
+        }
+
+        @Override
+        public void unscheduleDrawable(Drawable who, Runnable what) {
+            FrameTicker.get().unschedule(this, what);
+        }
+
         private int dp2px(float dpValue) {
-            float scale = textView.getResources().getDisplayMetrics().density;
+            float scale = resources.getDisplayMetrics().density;
             return (int) (dpValue * scale + 0.5f);
         }
     }
@@ -18,6 +18,12 @@ public interface HtmlImageLoader {
          */
         void onLoadComplete(Bitmap bitmap);
 
+        /**
+         * 加载成功，GIF 等动图可传入 {@link android.graphics.drawable.Animatable} 或
+         * {@link android.graphics.drawable.AnimationDrawable}，显示时自动播放
+         */
+        void onDrawableLoadComplete(Drawable drawable);
+
         /**
          * 加载失败
          */
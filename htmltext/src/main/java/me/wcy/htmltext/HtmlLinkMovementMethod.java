@@ -0,0 +1,100 @@
+package me.wcy.htmltext;
+
+import android.text.Layout;
+import android.text.Selection;
+import android.text.Spannable;
+import android.text.method.LinkMovementMethod;
+import android.text.method.MovementMethod;
+import android.text.method.Touch;
+import android.text.style.ClickableSpan;
+import android.view.MotionEvent;
+import android.widget.TextView;
+
+import me.wcy.htmltext.span.ImageClickSpan;
+import me.wcy.htmltext.span.LinkClickSpan;
+import me.wcy.htmltext.span.TableSpan;
+
+/**
+ * 图片、链接点击，代替{@link LinkMovementMethod}<br>
+ * 点击位置通过有序索引二分查找，手指按下时回调{@link OnTagPressListener}
+ */
+public class HtmlLinkMovementMethod extends LinkMovementMethod {
+    private static HtmlLinkMovementMethod sInstance;
+
+    public static MovementMethod getInstance() {
+        if (sInstance == null) {
+            sInstance = new HtmlLinkMovementMethod();
+        }
+        return sInstance;
+    }
+
+    @Override
+    public boolean onTouchEvent(TextView widget, Spannable buffer, MotionEvent event) {
+        int action = event.getAction();
+        if (action != MotionEvent.ACTION_DOWN && action != MotionEvent.ACTION_UP) {
+            return super.onTouchEvent(widget, buffer, event);
+        }
+
+        int[] range = new int[2];
+        ClickableSpan target = findTarget(widget, buffer, event, range);
+        if (target == null) {
+            // as LinkMovementMethod without a link, skipping its own lookup
+            Selection.removeSelection(buffer);
+            return Touch.onTouchEvent(widget, buffer, event);
+        }
+
+        if (action == MotionEvent.ACTION_DOWN) {
+            Selection.setSelection(buffer, range[0], range[1]);
+            if (target instanceof ImageClickSpan) {
+                ((ImageClickSpan) target).onPress(widget);
+            } else if (target instanceof LinkClickSpan) {
+                ((LinkClickSpan) target).onPress(widget);
+            }
+        } else {
+            target.onClick(widget);
+        }
+        return true;
+    }
+
+    /**
+     * The clickable span under the touch, taps beside the end of a line don't hit the last char.
+     * Links and images in a table are found in its cells.
+     *
+     * @param range receives the range of the text to select, the table char for a span in a cell
+     */
+    private static ClickableSpan findTarget(TextView widget, Spannable buffer, MotionEvent event, int[] range) {
+        Layout layout = widget.getLayout();
+        if (layout == null) {
+            return null;
+        }
+        int x = (int) event.getX() - widget.getTotalPaddingLeft() + widget.getScrollX();
+        int y = (int) event.getY() - widget.getTotalPaddingTop() + widget.getScrollY();
+        int line = layout.getLineForVertical(y);
+        if (x < layout.getLineLeft(line) || x > layout.getLineRight(line)) {
+            return null;
+        }
+        int offset = layout.getOffsetForHorizontal(line, x);
+        // the nearest boundary may be behind the char under the touch
+        if (offset > layout.getLineStart(line) && layout.getPrimaryHorizontal(offset) > x) {
+            offset--;
+        }
+        TapTargetIndex index = TapTargetIndex.get(widget, buffer);
+        ClickableSpan target = index.find(offset);
+        if (target != null) {
+            range[0] = buffer.getSpanStart(target);
+            range[1] = buffer.getSpanEnd(target);
+            return target;
+        }
+        TableSpan table = index.findTable(offset);
+        if (table == null) {
+            return null;
+        }
+        // the table is drawn from the bottom of its line up
+        int left = (int) layout.getPrimaryHorizontal(offset);
+        int top = layout.getLineBottom(line) - table.getHeight();
+        target = table.getClickable(x - left, y - top);
+        range[0] = offset;
+        range[1] = offset + 1;
+        return target;
+    }
+}
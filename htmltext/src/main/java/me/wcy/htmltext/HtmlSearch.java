@@ -0,0 +1,335 @@
+package me.wcy.htmltext;
+
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ReplacementSpan;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在已渲染的文本中查找并高亮<br>
+ * 文本索引在第一次查找时建立，高亮使用可复用的背景色 span，只刷新受影响的行
+ */
+public class HtmlSearch {
+    private static final int DEFAULT_HIGHLIGHT_COLOR = 0x66FFD54F;
+    private static final int[] EMPTY = new int[0];
+
+    private final TextView textView;
+    private int highlightColor = DEFAULT_HIGHLIGHT_COLOR;
+    private TextIndex index;
+    /**
+     * The text the index is built from, the index is dropped once it changes
+     */
+    private Spannable indexedText;
+    private final IndexWatcher indexWatcher = new IndexWatcher();
+    private String lastQuery;
+    /**
+     * All occurrences of the last query, overlapping ones too, so a longer query can refine them
+     */
+    private int[] lastMatches = EMPTY;
+    private final List<BackgroundColorSpan> highlights = new ArrayList<>();
+    private int highlightCount;
+
+    public HtmlSearch(TextView textView) {
+        this.textView = textView;
+    }
+
+    /**
+     * 设置高亮颜色
+     */
+    public HtmlSearch setHighlightColor(int highlightColor) {
+        this.highlightColor = highlightColor;
+        CharSequence text = textView.getText();
+        if (text instanceof Spannable) {
+            removeHighlights((Spannable) text);
+        }
+        highlights.clear();
+        highlightCount = 0;
+        lastQuery = null;
+        return this;
+    }
+
+    /**
+     * 查找并高亮，忽略大小写，匹配之间不重叠
+     *
+     * @return 所有匹配的起始位置
+     */
+    public int[] find(String query) {
+        if (TextUtils.isEmpty(query)) {
+            clear();
+            return EMPTY;
+        }
+
+        CharSequence text = textView.getText();
+        if (!(text instanceof Spannable)) {
+            textView.setText(text, TextView.BufferType.SPANNABLE);
+            text = textView.getText();
+        }
+        Spannable spannable = (Spannable) text;
+        if (index == null || indexWatcher.dirty || indexedText != spannable) {
+            if (indexedText != null) {
+                indexedText.removeSpan(indexWatcher);
+                removeHighlights(indexedText);
+            }
+            // the text may be a copy still holding the highlights
+            removeHighlights(spannable);
+            highlightCount = 0;
+            index = new TextIndex(indexChars(spannable));
+            indexedText = spannable;
+            indexWatcher.dirty = false;
+            spannable.setSpan(indexWatcher, 0, spannable.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+            lastQuery = null;
+        }
+
+        // lower case char by char, the same way the index does
+        char[] queryChars = new char[query.length()];
+        for (int i = 0; i < queryChars.length; i++) {
+            queryChars[i] = Character.toLowerCase(query.charAt(i));
+        }
+        String lowerQuery = new String(queryChars);
+        int[] occurrences;
+        if (lastQuery != null && lowerQuery.startsWith(lastQuery)) {
+            // typing one more char, only the previous occurrences can still match
+            occurrences = index.refine(lastMatches, lowerQuery);
+        } else {
+            occurrences = index.find(lowerQuery);
+        }
+        lastQuery = lowerQuery;
+        lastMatches = occurrences;
+
+        int[] matches = TextIndex.nonOverlapping(occurrences, lowerQuery.length());
+        highlight(spannable, matches, lowerQuery.length());
+        return matches;
+    }
+
+    /**
+     * 清除高亮
+     */
+    public void clear() {
+        CharSequence text = textView.getText();
+        if (text instanceof Spannable) {
+            highlight((Spannable) text, EMPTY, 0);
+        }
+        lastQuery = null;
+        lastMatches = EMPTY;
+    }
+
+    /**
+     * Move the pooled spans to the new matches, spans left over are removed.
+     * Moving a span only invalidates the old and the new range.
+     */
+    private void highlight(Spannable text, int[] matches, int length) {
+        for (int i = 0; i < matches.length; i++) {
+            if (i == highlights.size()) {
+                highlights.add(new BackgroundColorSpan(highlightColor));
+            }
+            BackgroundColorSpan span = highlights.get(i);
+            int start = matches[i];
+            if (text.getSpanStart(span) != start || text.getSpanEnd(span) != start + length) {
+                text.setSpan(span, start, start + length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+        for (int i = matches.length; i < highlightCount && i < highlights.size(); i++) {
+            text.removeSpan(highlights.get(i));
+        }
+        highlightCount = matches.length;
+    }
+
+    private void removeHighlights(Spannable text) {
+        for (int i = 0; i < highlightCount && i < highlights.size(); i++) {
+            text.removeSpan(highlights.get(i));
+        }
+    }
+
+    /**
+     * Lower cased copy of the text.
+     * Chars drawn by a ReplacementSpan (images, object chars) are masked so they never match.
+     */
+    private static char[] indexChars(Spanned text) {
+        int length = text.length();
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = Character.toLowerCase(text.charAt(i));
+        }
+        ReplacementSpan[] replacements = text.getSpans(0, length, ReplacementSpan.class);
+        for (ReplacementSpan span : replacements) {
+            int end = text.getSpanEnd(span);
+            for (int i = text.getSpanStart(span); i < end; i++) {
+                chars[i] = TextIndex.MASK;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[i] == '\uFFFC') {
+                chars[i] = TextIndex.MASK;
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * Marks the index dirty once the text changes.<br>
+     * Holds no reference to the search, so the text it is attached to doesn't keep the search alive,
+     * and it is not copied along with the text.
+     */
+    private static class IndexWatcher implements TextWatcher, NoCopySpan {
+        boolean dirty;
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            // rendered text may still be edited, e.g. by an incremental render
+            dirty = true;
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
+    }
+
+    /**
+     * Bigram index of a lower cased text, built once per document.<br>
+     * {@link #find} and {@link #refine} return every occurrence, overlapping ones too,
+     * {@link #nonOverlapping} picks the matches shown from them.
+     */
+    static class TextIndex {
+        private static final int BUCKETS = 4096;
+        static final char MASK = 0;
+
+        private final char[] chars;
+        /**
+         * positions of bigrams, grouped by bucket and ascending within a bucket
+         */
+        private int[] positions;
+        private int[] bucketStarts;
+
+        TextIndex(char[] chars) {
+            this.chars = chars;
+        }
+
+        int[] find(String query) {
+            if (query.indexOf(MASK) >= 0) {
+                return EMPTY;
+            }
+            if (query.length() == 1) {
+                return scan(query.charAt(0));
+            }
+            buildBigrams();
+            int bucket = bucket(query.charAt(0), query.charAt(1));
+            int[] result = new int[bucketStarts[bucket + 1] - bucketStarts[bucket]];
+            int count = 0;
+            for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++) {
+                int position = positions[i];
+                if (matches(position, query)) {
+                    result[count++] = position;
+                }
+            }
+            return trim(result, count);
+        }
+
+        /**
+         * Occurrences of the query among the occurrences of a prefix of it
+         */
+        int[] refine(int[] candidates, String query) {
+            int[] result = new int[candidates.length];
+            int count = 0;
+            for (int position : candidates) {
+                if (matches(position, query)) {
+                    result[count++] = position;
+                }
+            }
+            return trim(result, count);
+        }
+
+        /**
+         * From ascending occurrences, each one which starts after the one kept before it ends
+         */
+        static int[] nonOverlapping(int[] occurrences, int length) {
+            int[] result = new int[occurrences.length];
+            int count = 0;
+            int lastEnd = -1;
+            for (int position : occurrences) {
+                if (position >= lastEnd) {
+                    result[count++] = position;
+                    lastEnd = position + length;
+                }
+            }
+            return trim(result, count);
+        }
+
+        private int[] scan(char c) {
+            int count = 0;
+            for (char ch : chars) {
+                if (ch == c) {
+                    count++;
+                }
+            }
+            int[] result = new int[count];
+            int j = 0;
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c) {
+                    result[j++] = i;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Counting sort of all bigram positions by bucket, done on the first query longer than one char
+         */
+        private void buildBigrams() {
+            if (positions != null) {
+                return;
+            }
+            int count = Math.max(chars.length - 1, 0);
+            bucketStarts = new int[BUCKETS + 1];
+            for (int i = 0; i < count; i++) {
+                bucketStarts[bucket(chars[i], chars[i + 1]) + 1]++;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                bucketStarts[i + 1] += bucketStarts[i];
+            }
+            positions = new int[count];
+            int[] next = new int[BUCKETS];
+            System.arraycopy(bucketStarts, 0, next, 0, BUCKETS);
+            for (int i = 0; i < count; i++) {
+                positions[next[bucket(chars[i], chars[i + 1])]++] = i;
+            }
+        }
+
+        private boolean matches(int position, String query) {
+            int length = query.length();
+            if (position + length > chars.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars[position + i] != query.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int bucket(char c1, char c2) {
+            return ((c1 * 31) ^ c2) & (BUCKETS - 1);
+        }
+
+        private static int[] trim(int[] array, int count) {
+            if (count == array.length) {
+                return array;
+            }
+            int[] result = new int[count];
+            System.arraycopy(array, 0, result, 0, count);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package me.wcy.htmltext;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * UTF-8 html read from a file, an asset or a raw resource.<br>
+ * The bytes are mapped, or read into one buffer when small or compressed. They are hashed for
+ * the document cache as they are, and decoded only when the document has to be parsed,
+ * into a char buffer of the exact length counted from the bytes.
+ */
+abstract class HtmlSource {
+    /**
+     * Smaller files are read, mapping costs more than copying them
+     */
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    private ByteBuffer bytes;
+
+    static HtmlSource file(final File file) {
+        return new HtmlSource() {
+            @Override
+            ByteBuffer open() throws IOException {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    FileChannel channel = in.getChannel();
+                    return read(channel, 0, channel.size());
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    static HtmlSource asset(final AssetManager assets, final String path) {
+        return new HtmlSource() {
+            @Override
+            ByteBuffer open() throws IOException {
+                AssetFileDescriptor fd;
+                try {
+                    fd = assets.openFd(path);
+                } catch (FileNotFoundException e) {
+                    // compressed in the apk, only readable as a stream
+                    return readStream(assets.open(path));
+                }
+                return read(fd);
+            }
+        };
+    }
+
+    static HtmlSource raw(final Resources resources, final int id) {
+        return new HtmlSource() {
+            @Override
+            ByteBuffer open() throws IOException {
+                AssetFileDescriptor fd;
+                try {
+                    fd = resources.openRawResourceFd(id);
+                } catch (Resources.NotFoundException e) {
+                    fd = null;
+                }
+                if (fd == null) {
+                    // compressed in the apk, only readable as a stream
+                    return readStream(resources.openRawResource(id));
+                }
+                return read(fd);
+            }
+        };
+    }
+
+    abstract ByteBuffer open() throws IOException;
+
+    /**
+     * Digest of the content, null if it can't be read
+     */
+    byte[] digest() {
+        ByteBuffer content = content();
+        return (content != null) ? HtmlDocumentCache.digest(content) : null;
+    }
+
+    /**
+     * The content as text, null if it can't be read
+     */
+    String decode() {
+        ByteBuffer content = content();
+        // the bytes aren't needed anymore, a mapping is released with them
+        bytes = null;
+        return (content != null) ? decode(content) : null;
+    }
+
+    /**
+     * Read once, without a UTF-8 byte order mark
+     */
+    private ByteBuffer content() {
+        if (bytes == null) {
+            try {
+                bytes = open();
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+            if (bytes.remaining() >= 3 && (bytes.get(bytes.position()) & 0xFF) == 0xEF
+                    && (bytes.get(bytes.position() + 1) & 0xFF) == 0xBB
+                    && (bytes.get(bytes.position() + 2) & 0xFF) == 0xBF) {
+                bytes.position(bytes.position() + 3);
+            }
+        }
+        return bytes.duplicate();
+    }
+
+    static String decode(ByteBuffer content) {
+        // one char for every byte starting a sequence, two for a 4 byte sequence
+        int length = 0;
+        for (int i = content.position(); i < content.limit(); i++) {
+            int b = content.get(i) & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                length += (b >= 0xF0) ? 2 : 1;
+            }
+        }
+        int start = content.position();
+        CharBuffer chars = CharBuffer.allocate(length);
+        CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CoderResult result = decoder.decode(content, chars, true);
+        if (!result.isOverflow()) {
+            result = decoder.flush(chars);
+        }
+        if (result.isOverflow()) {
+            // malformed input, the replacements need more room than counted
+            content.position(start);
+            return Charset.forName("UTF-8").decode(content).toString();
+        }
+        return new String(chars.array(), 0, chars.position());
+    }
+
+    private static ByteBuffer read(AssetFileDescriptor fd) throws IOException {
+        try {
+            FileInputStream in = fd.createInputStream();
+            try {
+                long length = fd.getLength();
+                if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    length = in.getChannel().size() - fd.getStartOffset();
+                }
+                return read(in.getChannel(), fd.getStartOffset(), length);
+            } finally {
+                in.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("too large: " + length);
+        }
+        if (length >= MAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        int read;
+        do {
+            read = channel.read(buffer, offset + buffer.position());
+        } while (read > 0 && buffer.hasRemaining());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer readStream(InputStream in) throws IOException {
+        try {
+            // an asset stream knows its remaining length
+            byte[] data = new byte[Math.max(in.available(), 1024)];
+            int length = 0;
+            int read;
+            while ((read = in.read(data, length, data.length - length)) > 0) {
+                length += read;
+                if (length == data.length) {
+                    int next = in.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    byte[] larger = new byte[data.length * 2];
+                    System.arraycopy(data, 0, larger, 0, length);
+                    data = larger;
+                    data[length++] = (byte) next;
+                }
+            }
+            return ByteBuffer.wrap(data, 0, length);
+        } finally {
+            in.close();
+        }
+    }
+}
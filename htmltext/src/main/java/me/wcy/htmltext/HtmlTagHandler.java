@@ -21,29 +21,37 @@ package me.wcy.htmltext;
 
 import android.content.Context;
 import android.graphics.Color;
+import android.graphics.Typeface;
 import android.text.Editable;
 import android.text.Html;
 import android.text.Layout;
 import android.text.Spannable;
+import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.TextPaint;
 import android.text.style.AbsoluteSizeSpan;
 import android.text.style.AlignmentSpan;
 import android.text.style.BulletSpan;
 import android.text.style.ForegroundColorSpan;
+import android.text.style.ImageSpan;
 import android.text.style.LeadingMarginSpan;
 import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
 import android.text.style.TypefaceSpan;
 import android.widget.TextView;
 
 import org.xml.sax.XMLReader;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
+import me.wcy.htmltext.span.LinkClickSpan;
 import me.wcy.htmltext.span.NumberSpan;
+import me.wcy.htmltext.span.TableSpan;
 
 /**
  * Some parts of this code are based on android.text.Html
@@ -54,11 +62,32 @@ class HtmlTagHandler implements Html.TagHandler {
     private static final String UNORDERED_LIST = "HTML_TEXT_TAG_UL";
     private static final String ORDERED_LIST = "HTML_TEXT_TAG_OL";
     private static final String LIST_ITEM = "HTML_TEXT_TAG_LI";
-    private static final String FONT = "HTML_TEXT_TAG_FONT";
+    static final String FONT = "HTML_TEXT_TAG_FONT";
     private static final String DIV = "HTML_TEXT_TAG_DIV";
+    static final String STYLE = "HTML_TEXT_TAG_STYLE";
+    private static final String BLOCK_STYLE = "HTML_TEXT_TAG_BLOCK_STYLE";
+    /**
+     * Empty tag marking where a fragment starts behind the text rendered before it
+     */
+    static final String FRAGMENT = "HTML_TEXT_TAG_FRAGMENT";
+    static final String ANCHOR = "HTML_TEXT_TAG_A";
+    private static final String[] RENAMED_TAGS = {
+            "a", ANCHOR,
+            "ul", UNORDERED_LIST,
+            "ol", ORDERED_LIST,
+            "li", LIST_ITEM,
+            "font", FONT,
+            "div", DIV
+    };
+    private static final String[] STYLED_TAGS = {"span", "p", "div", "font"};
 
     private Context mContext;
     private TextPaint mTextPaint;
+    /**
+     * Context of the TextView, passed to the link listener
+     */
+    private Context mViewContext;
+    private OnTagClickListener onTagClickListener;
 
     /**
      * Keeps track of lists (ol, ul). On bottom of Stack is the outermost list
@@ -70,14 +99,89 @@ class HtmlTagHandler implements Html.TagHandler {
      * we can continue with correct index of outer list
      */
     private Stack<Integer> olNextIndex = new Stack<>();
+    /**
+     * Shared leading margins of ordered lists, only used when {@link #alignOrderedList} is set
+     */
+    private Stack<NumberSpan.Gutter> olGutters = new Stack<>();
+    private boolean alignOrderedList;
+    /**
+     * Tables being parsed, the innermost on top
+     */
+    private Stack<Table> tables = new Stack<>();
+    /**
+     * Width available to tables in px
+     */
+    private int maxWidth;
+    /**
+     * {@link android.text.util.Linkify} mask of the links detected in text, 0 for none
+     */
+    private int autoLinkMask;
+    /**
+     * Parsing is aborted after this uptime, 0 for no limit
+     */
+    private long deadline;
+    /**
+     * The output being built, kept so a parse aborted by the render budget can be truncated
+     */
+    private Editable mOutput;
+    /**
+     * Length of the output when the {@link #FRAGMENT} tag was seen, 0 without one
+     */
+    private int fragmentStart;
 
     private static final int indent = 10;
     private static final int listItemIndent = indent * 2;
     private static final BulletSpan bullet = new BulletSpan(indent);
 
     void setTextView(TextView textView) {
-        mContext = textView.getContext().getApplicationContext();
+        mViewContext = textView.getContext();
+        mContext = mViewContext.getApplicationContext();
         mTextPaint = textView.getPaint();
+        maxWidth = mContext.getResources().getDisplayMetrics().widthPixels
+                - textView.getPaddingLeft() - textView.getPaddingRight();
+    }
+
+    /**
+     * Overrides the width from the screen, ignored if not positive
+     */
+    void setMaxWidth(int maxWidth) {
+        if (maxWidth > 0) {
+            this.maxWidth = maxWidth;
+        }
+    }
+
+    void setOnTagClickListener(OnTagClickListener onTagClickListener) {
+        this.onTagClickListener = onTagClickListener;
+    }
+
+    void setAlignOrderedList(boolean alignOrderedList) {
+        this.alignOrderedList = alignOrderedList;
+    }
+
+    void setAutoLinkMask(int autoLinkMask) {
+        this.autoLinkMask = autoLinkMask;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    Editable getOutput() {
+        return mOutput;
+    }
+
+    int getFragmentStart() {
+        return fragmentStart;
+    }
+
+    /**
+     * Measure the gutters of ordered lists left open, by a parse aborted by the render budget
+     */
+    void finish() {
+        while (!olGutters.isEmpty()) {
+            int itemCount = olNextIndex.isEmpty() ? 0 : olNextIndex.pop() - 1;
+            olGutters.pop().measure(mTextPaint, itemCount);
+        }
     }
 
     /**
@@ -85,6 +189,9 @@ class HtmlTagHandler implements Html.TagHandler {
      * tags itself which means they never get delegated to this class. We want to handle the tags
      * ourselves so before passing the string html into Html.fromHtml(), we can use this method to
      * replace the &lt;ul&gt; and &lt;li&gt; tags with tags of our own.
+     * <p>
+     * The style attribute of span, p, div and font moves to a wrapper tag of our own inside the element,
+     * so Html doesn't apply it a second time. Tags are renamed in one pass, matching whole tag names only.
      *
      * @param html String containing HTML, for example: "<b>Hello world!</b>"
      * @return html with replaced <ul> and <li> tags
@@ -96,31 +203,209 @@ class HtmlTagHandler implements Html.TagHandler {
         }
 
         // Wrap HTML tags to prevent parsing custom tags error
-        html = "<html>" + html + "</html>";
+        StringBuilder out = new StringBuilder(html.length() + 64);
+        out.append("<html>");
+
+        // open span, p, div and font, with the style wrapper each one opened or null
+        Stack<String> openTags = new Stack<>();
+        Stack<String> openStyles = new Stack<>();
+        int length = html.length();
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            int tagStart = html.indexOf('<', i);
+            if (tagStart < 0) {
+                break;
+            }
+            if (html.startsWith("<!--", tagStart)) {
+                int commentEnd = html.indexOf("-->", tagStart + 4);
+                i = (commentEnd < 0) ? length : commentEnd + 3;
+                continue;
+            }
+            boolean closing = tagStart + 1 < length && html.charAt(tagStart + 1) == '/';
+            int nameStart = closing ? tagStart + 2 : tagStart + 1;
+            if (nameStart >= length || !Character.isLetter(html.charAt(nameStart))) {
+                // a plain '<' in text
+                i = tagStart + 1;
+                continue;
+            }
+            int tagEnd = BudgetScanner.findTagEnd(html, tagStart + 1, length);
+            if (tagEnd < 0) {
+                break;
+            }
+            i = tagEnd + 1;
 
-        html = html.replace("<ul", "<" + UNORDERED_LIST);
-        html = html.replace("</ul>", "</" + UNORDERED_LIST + ">");
-        html = html.replace("<ol", "<" + ORDERED_LIST);
-        html = html.replace("</ol>", "</" + ORDERED_LIST + ">");
-        html = html.replace("<li", "<" + LIST_ITEM);
-        html = html.replace("</li>", "</" + LIST_ITEM + ">");
-        html = html.replace("<font", "<" + FONT);
-        html = html.replace("</font>", "</" + FONT + ">");
-        html = html.replace("<div", "<" + DIV);
-        html = html.replace("</div>", "</" + DIV + ">");
+            int nameEnd = nameStart;
+            while (nameEnd < tagEnd && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            String name = styledTag(html, nameStart, nameEnd);
+            String renamed = renamedTag(html, nameStart, nameEnd);
+            boolean empty = html.charAt(tagEnd - 1) == '/';
+            if (!closing && !empty && !openTags.isEmpty() && openTags.peek().equals("p")
+                    && closesParagraph(html, nameStart, nameEnd)) {
+                // <p> is closed by the next <p> or block, close its style there too
+                out.append(html, copied, tagStart);
+                copied = tagStart;
+                openTags.pop();
+                closeStyle(out, openStyles.pop());
+            }
+            if (name == null && renamed == null) {
+                continue;
+            }
+
+            out.append(html, copied, tagStart);
+            copied = tagEnd + 1;
+            if (closing) {
+                if (name != null && openTags.contains(name)) {
+                    // close what is left open inside, as the parser will
+                    String tag;
+                    do {
+                        tag = openTags.pop();
+                        closeStyle(out, openStyles.pop());
+                    } while (!tag.equals(name));
+                }
+                out.append("</").append((renamed != null) ? renamed : name).append(html, nameEnd, tagEnd + 1);
+                continue;
+            }
+
+            int[] styleRange = (name != null && !empty) ? findStyle(html, nameEnd, tagEnd) : null;
+            out.append('<').append((renamed != null) ? renamed : name);
+            if (styleRange != null) {
+                // the style moves to a wrapper inside the element
+                out.append(html, nameEnd, styleRange[0]).append(html, styleRange[1], tagEnd + 1);
+            } else {
+                out.append(html, nameEnd, tagEnd + 1);
+            }
+            if (name == null || empty) {
+                continue;
+            }
+            String style = null;
+            if (styleRange != null) {
+                style = (name.equals("p") || name.equals("div")) ? BLOCK_STYLE : STYLE;
+                out.append('<').append(style).append(' ').append(html, styleRange[0], styleRange[1]).append('>');
+            }
+            openTags.push(name);
+            openStyles.push(style);
+        }
+        out.append(html, copied, length);
+        while (!openStyles.isEmpty()) {
+            closeStyle(out, openStyles.pop());
+        }
+        out.append("</html>");
+        return out.toString();
+    }
+
+    /**
+     * Tags which may carry a style attribute, null for others
+     */
+    private static String styledTag(String html, int start, int end) {
+        for (String tag : STYLED_TAGS) {
+            if (end - start == tag.length() && html.regionMatches(true, start, tag, 0, tag.length())) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the start tag ends an open &lt;p&gt;
+     */
+    private static boolean closesParagraph(String html, int start, int end) {
+        for (String tag : BudgetScanner.CLOSES_PARAGRAPH) {
+            if (end - start == tag.length() && html.regionMatches(true, start, tag, 0, tag.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Our name of a tag handled by Html itself on newer SDKs, null for others
+     */
+    private static String renamedTag(String html, int start, int end) {
+        for (int i = 0; i < RENAMED_TAGS.length; i += 2) {
+            String tag = RENAMED_TAGS[i];
+            if (end - start == tag.length() && html.regionMatches(true, start, tag, 0, tag.length())) {
+                return RENAMED_TAGS[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Range of the style attribute in the tag, including its value, or null
+     */
+    private static int[] findStyle(String html, int from, int tagEnd) {
+        int i = from;
+        while (i < tagEnd) {
+            while (i < tagEnd && (Character.isWhitespace(html.charAt(i)) || html.charAt(i) == '/')) {
+                i++;
+            }
+            int attrStart = i;
+            while (i < tagEnd && html.charAt(i) != '=' && html.charAt(i) != '>'
+                    && !Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            boolean style = i - attrStart == 5 && html.regionMatches(true, attrStart, "style", 0, 5);
+            while (i < tagEnd && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i < tagEnd && html.charAt(i) == '=') {
+                i++;
+                while (i < tagEnd && Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                if (i < tagEnd && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+                    int quoteEnd = html.indexOf(html.charAt(i), i + 1);
+                    i = (quoteEnd < 0 || quoteEnd > tagEnd) ? tagEnd : quoteEnd + 1;
+                } else {
+                    while (i < tagEnd && !Character.isWhitespace(html.charAt(i))) {
+                        i++;
+                    }
+                }
+            }
+            if (style) {
+                return new int[]{attrStart, i};
+            }
+            if (i == attrStart) {
+                i++;
+            }
+        }
+        return null;
+    }
 
-        return html;
+    private static void closeStyle(StringBuilder out, String style) {
+        if (style != null) {
+            out.append("</").append(style).append('>');
+        }
     }
 
     @Override
     public void handleTag(final boolean opening, final String tag, Editable output, final XMLReader xmlReader) {
+        mOutput = output;
+        if (opening && tag.equalsIgnoreCase("html")) {
+            // the document is wrapped in <html> by overrideTags, so this is the first tag
+            if (deadline > 0) {
+                DeadlineHandler.install(xmlReader, deadline);
+            }
+            if (autoLinkMask != 0) {
+                AutoLinker.install(xmlReader, output, autoLinkMask, mViewContext, onTagClickListener);
+            }
+        }
+
         if (opening) {
             // opening tag
-            if (tag.equalsIgnoreCase(UNORDERED_LIST)) {
+            if (tag.equalsIgnoreCase(FRAGMENT)) {
+                fragmentStart = output.length();
+            } else if (tag.equalsIgnoreCase(UNORDERED_LIST)) {
                 lists.push(tag);
             } else if (tag.equalsIgnoreCase(ORDERED_LIST)) {
                 lists.push(tag);
                 olNextIndex.push(1);
+                if (alignOrderedList) {
+                    olGutters.push(new NumberSpan.Gutter());
+                }
             } else if (tag.equalsIgnoreCase(LIST_ITEM)) {
                 if (output.length() > 0 && output.charAt(output.length() - 1) != '\n') {
                     output.append("\n");
@@ -138,18 +423,29 @@ class HtmlTagHandler implements Html.TagHandler {
                 startFont(output, xmlReader);
             } else if (tag.equalsIgnoreCase(DIV)) {
                 handleDiv(output);
+            } else if (tag.equalsIgnoreCase(STYLE) || tag.equalsIgnoreCase(BLOCK_STYLE)) {
+                String style = getAttributes(xmlReader).get("style");
+                start(output, new Styled(InlineStyle.get(style)));
             } else if (tag.equalsIgnoreCase("code")) {
                 start(output, new Code());
             } else if (tag.equalsIgnoreCase("center")) {
                 start(output, new Center());
             } else if (tag.equalsIgnoreCase("s") || tag.equalsIgnoreCase("strike")) {
                 start(output, new Strike());
+            } else if (tag.equalsIgnoreCase("table")) {
+                tables.push(new Table(output.length()));
             } else if (tag.equalsIgnoreCase("tr")) {
-                start(output, new Tr());
-            } else if (tag.equalsIgnoreCase("th")) {
-                start(output, new Th());
-            } else if (tag.equalsIgnoreCase("td")) {
-                start(output, new Td());
+                if (!tables.isEmpty()) {
+                    tables.peek().startRow();
+                }
+            } else if (tag.equalsIgnoreCase("th") || tag.equalsIgnoreCase("td")) {
+                if (!tables.isEmpty()) {
+                    tables.peek().cellStart = output.length();
+                }
+            } else if (tag.equalsIgnoreCase("caption")) {
+                start(output, new Caption());
+            } else if (tag.equalsIgnoreCase(ANCHOR)) {
+                start(output, new Href(getAttributes(xmlReader).get("href")));
             }
         } else {
             // closing tag
@@ -157,7 +453,11 @@ class HtmlTagHandler implements Html.TagHandler {
                 lists.pop();
             } else if (tag.equalsIgnoreCase(ORDERED_LIST)) {
                 lists.pop();
-                olNextIndex.pop();
+                int itemCount = olNextIndex.pop() - 1;
+                if (alignOrderedList) {
+                    // All items are created, measure the widest label once for the whole list
+                    olGutters.pop().measure(mTextPaint, itemCount);
+                }
             } else if (tag.equalsIgnoreCase(LIST_ITEM)) {
                 if (!lists.isEmpty()) {
                     if (lists.peek().equalsIgnoreCase(UNORDERED_LIST)) {
@@ -187,7 +487,10 @@ class HtmlTagHandler implements Html.TagHandler {
                             // Same as in ordered lists: counter the effect of nested Spans
                             numberMargin -= (lists.size() - 2) * listItemIndent;
                         }
-                        NumberSpan numberSpan = new NumberSpan(mTextPaint, olNextIndex.lastElement() - 1);
+                        int number = olNextIndex.lastElement() - 1;
+                        NumberSpan numberSpan = alignOrderedList
+                                ? new NumberSpan(olGutters.peek(), number)
+                                : new NumberSpan(mTextPaint, number);
                         end(output, Ol.class, false,
                                 new LeadingMarginSpan.Standard(numberMargin),
                                 numberSpan);
@@ -197,18 +500,30 @@ class HtmlTagHandler implements Html.TagHandler {
                 endFont(output);
             } else if (tag.equalsIgnoreCase(DIV)) {
                 handleDiv(output);
+            } else if (tag.equalsIgnoreCase(STYLE) || tag.equalsIgnoreCase(BLOCK_STYLE)) {
+                endStyled(output, tag.equalsIgnoreCase(BLOCK_STYLE));
             } else if (tag.equalsIgnoreCase("code")) {
                 end(output, Code.class, false, new TypefaceSpan("monospace"));
             } else if (tag.equalsIgnoreCase("center")) {
                 end(output, Center.class, true, new AlignmentSpan.Standard(Layout.Alignment.ALIGN_CENTER));
             } else if (tag.equalsIgnoreCase("s") || tag.equalsIgnoreCase("strike")) {
                 end(output, Strike.class, false, new StrikethroughSpan());
+            } else if (tag.equalsIgnoreCase("table")) {
+                if (!tables.isEmpty()) {
+                    endTable(output, tables.pop());
+                }
             } else if (tag.equalsIgnoreCase("tr")) {
-                end(output, Tr.class, false);
-            } else if (tag.equalsIgnoreCase("th")) {
-                end(output, Th.class, false);
-            } else if (tag.equalsIgnoreCase("td")) {
-                end(output, Td.class, false);
+                if (!tables.isEmpty()) {
+                    tables.peek().endRow();
+                }
+            } else if (tag.equalsIgnoreCase("th") || tag.equalsIgnoreCase("td")) {
+                if (!tables.isEmpty()) {
+                    endCell(output, tables.peek(), tag.equalsIgnoreCase("th"));
+                }
+            } else if (tag.equalsIgnoreCase("caption")) {
+                end(output, Caption.class, true, new AlignmentSpan.Standard(Layout.Alignment.ALIGN_CENTER));
+            } else if (tag.equalsIgnoreCase(ANCHOR)) {
+                endAnchor(output);
             }
         }
     }
@@ -228,13 +543,46 @@ class HtmlTagHandler implements Html.TagHandler {
     private static class Strike {
     }
 
-    private static class Tr {
+    private static class Caption {
     }
 
-    private static class Th {
+    private static class Href {
+        final String url;
+
+        Href(String url) {
+            this.url = url;
+        }
+    }
+
+    private static class Table {
+        final int start;
+        final List<CharSequence[]> rows = new ArrayList<>();
+        List<CharSequence> row;
+        int cellStart = -1;
+
+        Table(int start) {
+            this.start = start;
+        }
+
+        void startRow() {
+            endRow();
+            row = new ArrayList<>();
+        }
+
+        void endRow() {
+            if (row != null && !row.isEmpty()) {
+                rows.add(row.toArray(new CharSequence[row.size()]));
+            }
+            row = null;
+        }
     }
 
-    private static class Td {
+    private static class Styled {
+        private final InlineStyle style;
+
+        public Styled(InlineStyle style) {
+            this.style = style;
+        }
     }
 
     private static class Font {
@@ -280,6 +628,25 @@ class HtmlTagHandler implements Html.TagHandler {
         }
     }
 
+    /**
+     * The link is clickable as it is parsed, a link around an image is clicked as the image
+     */
+    private void endAnchor(Editable output) {
+        Href href = (Href) getLast(output, Href.class);
+        if (href == null) {
+            return;
+        }
+        int where = output.getSpanStart(href);
+        int len = output.length();
+        output.removeSpan(href);
+        if (href.url == null || where == len || output.getSpans(where, len, ImageSpan.class).length > 0) {
+            return;
+        }
+        LinkClickSpan span = new LinkClickSpan(mViewContext, href.url);
+        span.setListener(onTagClickListener);
+        output.setSpan(span, where, len, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+    }
+
     private void startFont(Editable output, XMLReader xmlReader) {
         int len = output.length();
         Map<String, String> attributes = getAttributes(xmlReader);
@@ -309,6 +676,109 @@ class HtmlTagHandler implements Html.TagHandler {
         }
     }
 
+    private void endStyled(Editable output, boolean block) {
+        Styled styled = (Styled) getLast(output, Styled.class);
+        if (styled == null) {
+            return;
+        }
+        int where = output.getSpanStart(styled);
+        output.removeSpan(styled);
+        if (styled.style != null) {
+            styled.style.apply(output, where, output.length(), block);
+        }
+    }
+
+    /**
+     * Move the text of the cell out of the output into the table
+     */
+    private void endCell(Editable output, Table table, boolean header) {
+        int len = output.length();
+        int start = table.cellStart;
+        table.cellStart = -1;
+        if (start < 0 || start > len) {
+            return;
+        }
+        int contentStart = start;
+        int contentEnd = len;
+        while (contentStart < contentEnd && Character.isWhitespace(output.charAt(contentStart))) {
+            contentStart++;
+        }
+        while (contentEnd > contentStart && Character.isWhitespace(output.charAt(contentEnd - 1))) {
+            contentEnd--;
+        }
+        SpannableStringBuilder cell = new SpannableStringBuilder(output, contentStart, contentEnd);
+        if (header && cell.length() > 0) {
+            cell.setSpan(new StyleSpan(Typeface.BOLD), 0, cell.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        if (table.row == null) {
+            table.row = new ArrayList<>();
+        }
+        table.row.add(cell);
+        delete(output, start, len);
+    }
+
+    /**
+     * Replace the table by one char drawn by a {@link TableSpan},
+     * text outside the cells such as the caption is kept above it
+     */
+    private void endTable(Editable output, Table table) {
+        table.endRow();
+        int start = Math.min(table.start, output.length());
+        int end = output.length();
+        int contentStart = start;
+        int contentEnd = end;
+        while (contentStart < contentEnd && Character.isWhitespace(output.charAt(contentStart))) {
+            contentStart++;
+        }
+        while (contentEnd > contentStart && Character.isWhitespace(output.charAt(contentEnd - 1))) {
+            contentEnd--;
+        }
+        if (contentStart == contentEnd) {
+            // only white space between the cells
+            delete(output, start, end);
+        } else {
+            // keep the new line ending a paragraph style like the caption's
+            int lineEnd = contentEnd;
+            while (lineEnd < end && output.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            delete(output, Math.min(lineEnd + 1, end), end);
+            delete(output, start, contentStart);
+            if (start > 0 && output.charAt(start - 1) != '\n') {
+                output.insert(start, "\n");
+            }
+        }
+        if (table.rows.isEmpty()) {
+            return;
+        }
+
+        if (output.length() > 0 && output.charAt(output.length() - 1) != '\n') {
+            output.append("\n");
+        }
+        int where = output.length();
+        float density = mContext.getResources().getDisplayMetrics().density;
+        TableSpan span = new TableSpan(table.rows, maxWidth, (int) (4 * density + 0.5f), (int) density);
+        output.append("\uFFFC");
+        output.setSpan(span, where, where + 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        output.append("\n");
+    }
+
+    /**
+     * Delete the text with the spans inside it, marks of tags still open are kept
+     */
+    private static void delete(Editable output, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        for (Object span : output.getSpans(start, end, Object.class)) {
+            if (output.getSpanFlags(span) != Spannable.SPAN_MARK_MARK
+                    && output.getSpanStart(span) >= start && output.getSpanEnd(span) <= end) {
+                output.removeSpan(span);
+            }
+        }
+        output.delete(start, end);
+    }
+
     private void handleDiv(Editable output) {
         int len = output.length();
 
@@ -1,26 +1,40 @@
 package me.wcy.htmltext;
 
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 import android.text.Html;
-import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.TextUtils;
-import android.text.style.ClickableSpan;
 import android.text.style.ImageSpan;
-import android.text.style.URLSpan;
+import android.text.style.LeadingMarginSpan;
 import android.widget.TextView;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 import me.wcy.htmltext.span.ImageClickSpan;
-import me.wcy.htmltext.span.LinkClickSpan;
+import me.wcy.htmltext.span.TableSpan;
 
 public class HtmlText {
     private HtmlImageLoader imageLoader;
     private OnTagClickListener onTagClickListener;
     private After after;
     private String source;
+    /**
+     * File, asset or raw resource, read when rendered
+     */
+    private HtmlSource input;
+    private boolean alignOrderedList;
+    private int autoLinkMask;
+    private RenderBudget renderBudget;
+    private HtmlDocumentCache documentCache;
+    private HtmlEmoji emoji;
+    private boolean localImageEnabled;
 
     public interface After {
         CharSequence after(SpannableStringBuilder ssb);
@@ -37,6 +51,34 @@ public class HtmlText {
         return new HtmlText(source);
     }
 
+    /**
+     * 从 UTF-8 文件读取源文本，读取失败时显示空文本<br>
+     * 设置了{@link #setDocumentCache(HtmlDocumentCache)}时，内容未改动的文件直接命中缓存，无需解码
+     */
+    public static HtmlText from(File file) {
+        HtmlText htmlText = new HtmlText(null);
+        htmlText.input = HtmlSource.file(file);
+        return htmlText;
+    }
+
+    /**
+     * 从 assets 中的 UTF-8 文件读取源文本，同{@link #from(File)}
+     */
+    public static HtmlText fromAsset(AssetManager assets, String path) {
+        HtmlText htmlText = new HtmlText(null);
+        htmlText.input = HtmlSource.asset(assets, path);
+        return htmlText;
+    }
+
+    /**
+     * 从 res/raw 中的 UTF-8 文件读取源文本，同{@link #from(File)}
+     */
+    public static HtmlText fromRaw(Resources resources, int id) {
+        HtmlText htmlText = new HtmlText(null);
+        htmlText.input = HtmlSource.raw(resources, id);
+        return htmlText;
+    }
+
     /**
      * 设置加载器
      */
@@ -45,6 +87,15 @@ public class HtmlText {
         return this;
     }
 
+    /**
+     * 允许加载本地图片，即 file://、asset://、res:// 开头的地址，默认不允许<br>
+     * 仅在 HTML 可信时开启，否则 HTML 可读取应用可访问的任意文件；data: 图片总是会解码
+     */
+    public HtmlText setLocalImageEnabled(boolean localImageEnabled) {
+        this.localImageEnabled = localImageEnabled;
+        return this;
+    }
+
     /**
      * 设置图片、链接点击监听器
      */
@@ -53,6 +104,47 @@ public class HtmlText {
         return this;
     }
 
+    /**
+     * 有序列表的所有条目使用相同的缩进，使序号对齐
+     */
+    public HtmlText setAlignOrderedList(boolean alignOrderedList) {
+        this.alignOrderedList = alignOrderedList;
+        return this;
+    }
+
+    /**
+     * 识别文本中的网址、邮箱、电话号码，点击回调{@link OnTagClickListener#onLinkClick(Context, String)}<br>
+     * 同{@link android.text.util.Linkify}，如 Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES，&lt;a&gt;标签内的文本不识别
+     */
+    public HtmlText setAutoLink(int mask) {
+        this.autoLinkMask = mask;
+        return this;
+    }
+
+    /**
+     * 设置渲染预算，用于渲染不可信的 HTML
+     */
+    public HtmlText setRenderBudget(RenderBudget renderBudget) {
+        this.renderBudget = renderBudget;
+        return this;
+    }
+
+    /**
+     * 设置磁盘缓存，相同的源文本和配置不再重复解析
+     */
+    public HtmlText setDocumentCache(HtmlDocumentCache documentCache) {
+        this.documentCache = documentCache;
+        return this;
+    }
+
+    /**
+     * 设置表情替换，在缓存之后、{@link #after(After)}之前执行
+     */
+    public HtmlText setEmoji(HtmlEmoji emoji) {
+        this.emoji = emoji;
+        return this;
+    }
+
     /**
      * 对处理完成的文本再次处理
      */
@@ -65,69 +157,292 @@ public class HtmlText {
      * 注入TextView
      */
     public void into(TextView textView) {
+        String source = this.source;
+        String cacheKey = null;
+        if (input != null) {
+            if (documentCache != null && renderBudget == null) {
+                // the bytes are hashed as they are, a cached document is shown without decoding them
+                cacheKey = HtmlDocumentCache.key(input.digest(), getRenderConfig(textView));
+                if (intoCached(textView, cacheKey, 0)) {
+                    return;
+                }
+            }
+            source = getSource();
+        }
         if (TextUtils.isEmpty(source)) {
+            DrawableHosts.attach(textView, null);
             textView.setText("");
             return;
         }
 
-        HtmlImageGetter imageGetter = new HtmlImageGetter();
-        HtmlTagHandler tagHandler = new HtmlTagHandler();
+        RenderBudget.Limit limit = null;
+        long deadline = 0;
+        if (renderBudget != null) {
+            BudgetScanner scanner = BudgetScanner.scan(source, renderBudget);
+            if (scanner.limit != null) {
+                limit = scanner.limit;
+                if (renderBudget.fallback == RenderBudget.Fallback.PLAIN_TEXT) {
+                    intoPlainText(textView, getSource(), limit);
+                    return;
+                }
+                source = source.substring(0, scanner.end);
+            }
+            if (renderBudget.maxTimeMillis != RenderBudget.UNLIMITED) {
+                deadline = SystemClock.uptimeMillis() + renderBudget.maxTimeMillis;
+            }
+        }
+
+        // Truncated documents are never cached, one read from the input is looked up already
+        if (documentCache != null && limit == null && cacheKey == null) {
+            cacheKey = HtmlDocumentCache.key(source, getRenderConfig(textView));
+            if (intoCached(textView, cacheKey, deadline)) {
+                return;
+            }
+        }
+
+        HtmlImageGetter imageGetter = createImageGetter(textView, deadline);
         List<String> imageUrls = new ArrayList<>();
+        HtmlTagHandler tagHandler = createTagHandler(textView, deadline);
+        imageGetter.getImageSize(source);
+        String html = tagHandler.overrideTags(source);
+
+        Spanned spanned;
+        try {
+            spanned = Html.fromHtml(html, imageGetter, tagHandler);
+        } catch (RenderBudget.ExceededException e) {
+            limit = e.limit;
+            if (renderBudget.fallback == RenderBudget.Fallback.PLAIN_TEXT) {
+                intoPlainText(textView, getSource(), limit);
+                return;
+            }
+            // keep what has been parsed so far
+            spanned = tagHandler.getOutput();
+            if (spanned == null) {
+                spanned = new SpannableStringBuilder();
+            }
+        }
+        tagHandler.finish();
+        SpannableStringBuilder ssb = processSpans(spanned, textView.getContext(), imageUrls);
+        if (limit != null) {
+            renderBudget.appendShowMore(ssb);
+            renderBudget.notifyLimit(limit);
+        } else if (cacheKey != null) {
+            byte[] data = SpannedCodec.encode(ssb, imageGetter);
+            if (data != null) {
+                documentCache.put(cacheKey, data);
+            }
+        }
+
+        show(textView, ssb, imageGetter);
+    }
+
+    /**
+     * Show the cached document, false if there is none
+     */
+    private boolean intoCached(TextView textView, String cacheKey, long deadline) {
+        if (cacheKey == null) {
+            return false;
+        }
+        byte[] data = documentCache.get(cacheKey);
+        if (data == null) {
+            return false;
+        }
+        HtmlImageGetter imageGetter = createImageGetter(textView, deadline);
+        SpannableStringBuilder ssb;
+        try {
+            ssb = SpannedCodec.decode(data, imageGetter, textView.getPaint(),
+                    textView.getContext(), onTagClickListener, new ArrayList<String>());
+        } catch (RenderBudget.ExceededException e) {
+            // out of time, the entry is fine, the parse reports the limit
+            return false;
+        }
+        if (ssb == null) {
+            // stale format or corrupted, start over
+            documentCache.remove(cacheKey);
+            return false;
+        }
+        show(textView, ssb, imageGetter);
+        return true;
+    }
+
+    /**
+     * The source, read and decoded once from the input
+     */
+    private String getSource() {
+        if (source == null && input != null) {
+            source = input.decode();
+            input = null;
+        }
+        return source;
+    }
 
+    /**
+     * 增量注入TextView，适用于实时预览<br>
+     * 仅重新解析改动的段落，未改动段落的样式和已加载的图片保持不变，不会执行{@link #after(After)}
+     */
+    public void intoIncremental(TextView textView) {
+        IncrementalRenderer renderer = IncrementalRenderer.get(textView);
+        String source = getSource();
+        renderer.render(this, textView, (source != null) ? source : "");
+    }
+
+    /**
+     * Parse one block of the document as if it followed the already rendered text before it
+     */
+    SpannableStringBuilder renderFragment(String fragment, CharSequence before, TextView textView,
+                                          HtmlImageGetter imageGetter, List<String> imageUrls) {
+        // Html collapses white space and separates paragraphs depending on the text before,
+        // so parse the fragment behind a prefix which ends like the text before it.
+        // What the prefix renders to is cut at the marker tag in front of the fragment.
+        StringBuilder prefix = new StringBuilder();
+        int length = before.length();
+        if (length > 0) {
+            prefix.append('x');
+        }
+        if (length > 0 && before.charAt(length - 1) == ' ') {
+            prefix.append(' ');
+        }
+        for (int i = length - 1; i >= 0 && i >= length - 2 && before.charAt(i) == '\n'; i--) {
+            prefix.append("<br>");
+        }
+        prefix.append('<').append(HtmlTagHandler.FRAGMENT).append("/>");
+
+        HtmlTagHandler tagHandler = createTagHandler(textView, 0);
+        imageGetter.getImageSize(fragment);
+        String html = tagHandler.overrideTags(prefix + fragment);
+        SpannableStringBuilder ssb = processSpans(Html.fromHtml(html, imageGetter, tagHandler),
+                textView.getContext(), imageUrls);
+        ssb.delete(0, Math.min(tagHandler.getFragmentStart(), ssb.length()));
+        if (emoji != null) {
+            emoji.replace(ssb);
+        }
+        return ssb;
+    }
+
+    HtmlImageLoader getImageLoader() {
+        return imageLoader;
+    }
+
+    HtmlImageGetter createImageGetter(TextView textView, long deadline) {
+        HtmlImageGetter imageGetter = new HtmlImageGetter();
         imageGetter.setTextView(textView);
         imageGetter.setImageLoader(imageLoader);
-        imageGetter.getImageSize(source);
+        imageGetter.setLocalImageEnabled(localImageEnabled);
+        imageGetter.setDeadline(deadline);
+        return imageGetter;
+    }
 
+    private HtmlTagHandler createTagHandler(TextView textView, long deadline) {
+        HtmlTagHandler tagHandler = new HtmlTagHandler();
         tagHandler.setTextView(textView);
-        source = tagHandler.overrideTags(source);
+        tagHandler.setAlignOrderedList(alignOrderedList);
+        tagHandler.setAutoLinkMask(autoLinkMask);
+        tagHandler.setOnTagClickListener(onTagClickListener);
+        if (imageLoader != null) {
+            tagHandler.setMaxWidth(imageLoader.getMaxWidth());
+        }
+        tagHandler.setDeadline(deadline);
+        return tagHandler;
+    }
 
-        Spanned spanned = Html.fromHtml(source, imageGetter, tagHandler);
-        SpannableStringBuilder ssb;
-        if (spanned instanceof SpannableStringBuilder) {
-            ssb = (SpannableStringBuilder) spanned;
-        } else {
-            ssb = new SpannableStringBuilder(spanned);
+    private void show(TextView textView, SpannableStringBuilder ssb, HtmlImageGetter imageGetter) {
+        if (emoji != null) {
+            // not part of the cached document, the spans hold bitmaps of the app
+            emoji.replace(ssb);
+        }
+        CharSequence charSequence = ssb;
+        if (after != null) {
+            charSequence = after.after(ssb);
         }
 
-        // Hold image url link
-        imageUrls.clear();
-        ImageSpan[] imageSpans = ssb.getSpans(0, ssb.length(), ImageSpan.class);
-        for (int i = 0; i < imageSpans.length; i++) {
-            ImageSpan imageSpan = imageSpans[i];
-            String imageUrl = imageSpan.getSource();
-            int start = ssb.getSpanStart(imageSpan);
-            int end = ssb.getSpanEnd(imageSpan);
-            imageUrls.add(imageUrl);
+        // a spannable buffer gets a DynamicLayout, an image which loads reflows its paragraph only
+        textView.setText(charSequence, TextView.BufferType.SPANNABLE);
+        DrawableHosts.attach(textView, imageGetter.getHosts());
+    }
 
-            ImageClickSpan imageClickSpan = new ImageClickSpan(textView.getContext(), imageUrls, i);
-            imageClickSpan.setListener(onTagClickListener);
-            ClickableSpan[] clickableSpans = ssb.getSpans(start, end, ClickableSpan.class);
-            if (clickableSpans != null) {
-                for (ClickableSpan cs : clickableSpans) {
-                    ssb.removeSpan(cs);
+    /**
+     * Everything besides the source the rendered spans depend on
+     */
+    String getRenderConfig(TextView textView) {
+        return textView.getPaint().getTextSize()
+                + "," + textView.getResources().getDisplayMetrics().density
+                + "," + alignOrderedList
+                + "," + autoLinkMask;
+    }
+
+    /**
+     * 将已渲染的文本显示到另一个TextView，无需重新解析<br>
+     * 图片加载完成后所有显示该文本的TextView都会刷新
+     */
+    public static void attach(TextView textView, CharSequence text) {
+        textView.setText(text, TextView.BufferType.SPANNABLE);
+        DrawableHosts hosts = null;
+        if (text instanceof Spanned) {
+            Spanned spanned = (Spanned) text;
+            ImageSpan[] imageSpans = spanned.getSpans(0, spanned.length(), ImageSpan.class);
+            for (ImageSpan imageSpan : imageSpans) {
+                Drawable drawable = imageSpan.getDrawable();
+                if (drawable instanceof HtmlImageGetter.ImageDrawable) {
+                    // all images of a document share the same hosts
+                    hosts = ((HtmlImageGetter.ImageDrawable) drawable).getHosts();
+                    break;
                 }
             }
-            ssb.setSpan(imageClickSpan, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-        }
-
-        // Hold text url link
-        URLSpan[] urlSpans = ssb.getSpans(0, ssb.length(), URLSpan.class);
-        if (urlSpans != null) {
-            for (URLSpan urlSpan : urlSpans) {
-                int start = ssb.getSpanStart(urlSpan);
-                int end = ssb.getSpanEnd(urlSpan);
-                ssb.removeSpan(urlSpan);
-                LinkClickSpan linkClickSpan = new LinkClickSpan(textView.getContext(), urlSpan.getURL());
-                linkClickSpan.setListener(onTagClickListener);
-                ssb.setSpan(linkClickSpan, start, end, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
-            }
         }
+        DrawableHosts.attach(textView, hosts);
+    }
 
-        CharSequence charSequence = ssb;
-        if (after != null) {
-            charSequence = after.after(ssb);
+    private void intoPlainText(TextView textView, String source, RenderBudget.Limit limit) {
+        DrawableHosts.attach(textView, null);
+        textView.setText(BudgetScanner.toPlainText(source, renderBudget.maxInputChars));
+        renderBudget.notifyLimit(limit);
+    }
+
+    /**
+     * Make images clickable in one traversal.<br>
+     * Links are clickable as they are parsed, no span is replaced,
+     * since each removeSpan on a SpannableStringBuilder costs O(spans).
+     */
+    private SpannableStringBuilder processSpans(Spanned spanned, Context context, List<String> imageUrls) {
+        SpannableStringBuilder ssb = (spanned instanceof SpannableStringBuilder)
+                ? (SpannableStringBuilder) spanned : new SpannableStringBuilder(spanned);
+        ImageSpan[] imageSpans = ssb.getSpans(0, ssb.length(), ImageSpan.class);
+        TableSpan[] tableSpans = ssb.getSpans(0, ssb.length(), TableSpan.class);
+
+        int table = 0;
+        for (ImageSpan imageSpan : imageSpans) {
+            int start = ssb.getSpanStart(imageSpan);
+            // images of the tables before come first in the url list
+            while (table < tableSpans.length && ssb.getSpanStart(tableSpans[table]) < start) {
+                processTable(ssb, tableSpans[table++], context, imageUrls);
+            }
+            ImageClickSpan imageClickSpan = new ImageClickSpan(context, imageUrls, imageUrls.size());
+            imageClickSpan.setListener(onTagClickListener);
+            imageUrls.add(imageSpan.getSource());
+            ssb.setSpan(imageClickSpan, start, ssb.getSpanEnd(imageSpan), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
+        while (table < tableSpans.length) {
+            processTable(ssb, tableSpans[table++], context, imageUrls);
+        }
+        return ssb;
+    }
 
-        textView.setText(charSequence);
+    /**
+     * Convert the links and images in the cells, and narrow the table by the indent of its paragraph
+     */
+    private void processTable(Spanned text, TableSpan table, Context context, List<String> imageUrls) {
+        for (CharSequence[] row : table.getRows()) {
+            for (CharSequence cell : row) {
+                if (cell instanceof SpannableStringBuilder) {
+                    processSpans((SpannableStringBuilder) cell, context, imageUrls);
+                }
+            }
+        }
+        int start = text.getSpanStart(table);
+        int leadingMargin = 0;
+        for (LeadingMarginSpan margin : text.getSpans(start, start + 1, LeadingMarginSpan.class)) {
+            leadingMargin += margin.getLeadingMargin(true);
+        }
+        table.setLeadingMargin(leadingMargin);
     }
 }
@@ -0,0 +1,314 @@
+package me.wcy.htmltext;
+
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ImageSpan;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.wcy.htmltext.span.ImageClickSpan;
+
+/**
+ * State of a document rendered by {@link HtmlText#intoIncremental(TextView)}.<br>
+ * The source is split at top level block boundaries, each block is rendered on its own.
+ * A new source is diffed against the previous blocks and only the changed blocks are parsed
+ * again and spliced into the TextView's Editable.
+ */
+class IncrementalRenderer {
+    private static final String[] BLOCK_TAGS = {
+            "p", "div", "ul", "ol", "table", "blockquote", "pre", "center",
+            "h1", "h2", "h3", "h4", "h5", "h6", "hr"
+    };
+
+    /**
+     * Marks the Editable built by this renderer, survives the copy made by TextView.setText
+     */
+    private final Object marker = new Object();
+    private final DrawableHosts hosts = new DrawableHosts();
+    private List<String> blocks = new ArrayList<>();
+    /**
+     * Rendered length of each block
+     */
+    private List<Integer> lengths = new ArrayList<>();
+    private String config;
+    private HtmlImageLoader imageLoader;
+
+    static IncrementalRenderer get(TextView textView) {
+        Object tag = textView.getTag(R.id.html_text_incremental);
+        if (tag instanceof IncrementalRenderer) {
+            return (IncrementalRenderer) tag;
+        }
+        IncrementalRenderer renderer = new IncrementalRenderer();
+        textView.setTag(R.id.html_text_incremental, renderer);
+        return renderer;
+    }
+
+    void render(HtmlText htmlText, TextView textView, String source) {
+        List<String> newBlocks = split(source);
+        String newConfig = htmlText.getRenderConfig(textView);
+        Editable editable = textView.getEditableText();
+        if (editable == null || editable.getSpanStart(marker) < 0
+                || !newConfig.equals(config) || htmlText.getImageLoader() != imageLoader) {
+            renderAll(htmlText, textView, newBlocks);
+            return;
+        }
+
+        int oldCount = blocks.size();
+        int newCount = newBlocks.size();
+        int prefix = 0;
+        while (prefix < oldCount && prefix < newCount && blocks.get(prefix).equals(newBlocks.get(prefix))) {
+            prefix++;
+        }
+        if (prefix == oldCount && prefix == newCount) {
+            return;
+        }
+        int suffix = 0;
+        while (suffix < oldCount - prefix && suffix < newCount - prefix
+                && blocks.get(oldCount - 1 - suffix).equals(newBlocks.get(newCount - 1 - suffix))) {
+            suffix++;
+        }
+
+        int start = 0;
+        for (int i = 0; i < prefix; i++) {
+            start += lengths.get(i);
+        }
+        int end = editable.length();
+        for (int i = oldCount - suffix; i < oldCount; i++) {
+            end -= lengths.get(i);
+        }
+
+        HtmlImageGetter imageGetter = htmlText.createImageGetter(textView, 0);
+        imageGetter.setHosts(hosts);
+        imageGetter.setRecycledDrawables(new HashMap<String, List<HtmlImageGetter.ImageDrawable>>());
+        String before = editable.subSequence(Math.max(start - 2, 0), start).toString();
+        SpannableStringBuilder replacement = new SpannableStringBuilder();
+        List<Integer> newLengths = new ArrayList<>();
+        int newIndex = prefix;
+        // images of the new blocks change before they are in the text, which is laid out with them after
+        hosts.beginUpdate();
+        try {
+            recycle(editable, start, end, imageGetter);
+            while (true) {
+                for (; newIndex < newCount - suffix; newIndex++) {
+                    SpannableStringBuilder fragment = htmlText.renderFragment(newBlocks.get(newIndex),
+                            tail(before, replacement), textView, imageGetter, new ArrayList<String>());
+                    replacement.append(fragment);
+                    newLengths.add(fragment.length());
+                }
+                // The first unchanged block was rendered after different text, render it again
+                if (suffix > 0 && !tail(before, replacement).equals(
+                        tail(editable.subSequence(Math.max(end - 2, 0), end), null))) {
+                    int oldEnd = end;
+                    end += lengths.get(oldCount - suffix);
+                    suffix--;
+                    recycle(editable, oldEnd, end, imageGetter);
+                    continue;
+                }
+                break;
+            }
+
+            // the TextView may have been given another copy of the text meanwhile
+            if (textView.getEditableText() != editable) {
+                renderAll(htmlText, textView, newBlocks);
+                return;
+            }
+            editable.replace(start, end, replacement);
+        } finally {
+            hosts.endUpdate();
+        }
+
+        List<Integer> updated = new ArrayList<>(lengths.subList(0, prefix));
+        updated.addAll(newLengths);
+        updated.addAll(lengths.subList(oldCount - suffix, oldCount));
+        lengths = updated;
+        blocks = newBlocks;
+        updateImagePositions(editable);
+    }
+
+    private void renderAll(HtmlText htmlText, TextView textView, List<String> newBlocks) {
+        HtmlImageGetter imageGetter = htmlText.createImageGetter(textView, 0);
+        imageGetter.setHosts(hosts);
+        SpannableStringBuilder ssb = new SpannableStringBuilder();
+        List<Integer> newLengths = new ArrayList<>();
+        hosts.beginUpdate();
+        try {
+            for (String block : newBlocks) {
+                SpannableStringBuilder fragment = htmlText.renderFragment(block, tail("", ssb), textView,
+                        imageGetter, new ArrayList<String>());
+                ssb.append(fragment);
+                newLengths.add(fragment.length());
+            }
+            ssb.setSpan(marker, 0, ssb.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+
+            textView.setText(ssb, TextView.BufferType.EDITABLE);
+        } finally {
+            hosts.endUpdate();
+        }
+        DrawableHosts.attach(textView, hosts);
+        blocks = newBlocks;
+        lengths = newLengths;
+        config = htmlText.getRenderConfig(textView);
+        imageLoader = htmlText.getImageLoader();
+        updateImagePositions(textView.getEditableText());
+    }
+
+    /**
+     * Keep the drawables of images in [start, end) for the new blocks,
+     * and remove the spans there so none survives the replace as an empty span
+     */
+    private void recycle(Editable editable, int start, int end, HtmlImageGetter imageGetter) {
+        Map<String, List<HtmlImageGetter.ImageDrawable>> recycled = imageGetter.getRecycledDrawables();
+        Object[] spans = editable.getSpans(start, end, Object.class);
+        for (Object span : spans) {
+            if (span == marker || span instanceof NoCopySpan) {
+                continue;
+            }
+            int spanStart = editable.getSpanStart(span);
+            int spanEnd = editable.getSpanEnd(span);
+            if (spanStart < start || spanEnd > end) {
+                continue;
+            }
+            if (span instanceof ImageSpan && ((ImageSpan) span).getDrawable() instanceof HtmlImageGetter.ImageDrawable) {
+                String source = ((ImageSpan) span).getSource();
+                List<HtmlImageGetter.ImageDrawable> drawables = recycled.get(source);
+                if (drawables == null) {
+                    drawables = new ArrayList<>();
+                    recycled.put(source, drawables);
+                }
+                drawables.add((HtmlImageGetter.ImageDrawable) ((ImageSpan) span).getDrawable());
+            }
+            editable.removeSpan(span);
+        }
+    }
+
+    /**
+     * Image click positions follow the document order
+     */
+    private static void updateImagePositions(final Editable editable) {
+        ImageClickSpan[] spans = editable.getSpans(0, editable.length(), ImageClickSpan.class);
+        Arrays.sort(spans, new Comparator<ImageClickSpan>() {
+            @Override
+            public int compare(ImageClickSpan s1, ImageClickSpan s2) {
+                return editable.getSpanStart(s1) - editable.getSpanStart(s2);
+            }
+        });
+        List<String> imageUrls = new ArrayList<>(spans.length);
+        for (ImageClickSpan span : spans) {
+            imageUrls.add(span.getImageUrl());
+        }
+        for (int i = 0; i < spans.length; i++) {
+            spans[i].setImageUrls(imageUrls, i);
+        }
+    }
+
+    /**
+     * Last two chars of before + appended, all a fragment's rendering depends on
+     */
+    private static String tail(CharSequence before, CharSequence appended) {
+        StringBuilder sb = new StringBuilder(4);
+        int appendedLength = (appended != null) ? appended.length() : 0;
+        if (appendedLength < 2) {
+            sb.append(before, Math.max(before.length() - (2 - appendedLength), 0), before.length());
+        }
+        if (appendedLength > 0) {
+            sb.append(appended, Math.max(appendedLength - 2, 0), appendedLength);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Split the source at top level block boundaries, the blocks concatenated are the source
+     */
+    static List<String> split(String source) {
+        List<String> blocks = new ArrayList<>();
+        int length = source.length();
+        int blockStart = 0;
+        int depth = 0;
+        int i = 0;
+        while (i < length) {
+            int tagStart = source.indexOf('<', i);
+            if (tagStart < 0) {
+                break;
+            }
+            if (source.startsWith("<!--", tagStart)) {
+                int commentEnd = source.indexOf("-->", tagStart + 4);
+                i = (commentEnd < 0) ? length : commentEnd + 3;
+                continue;
+            }
+            boolean closing = tagStart + 1 < length && source.charAt(tagStart + 1) == '/';
+            int nameStart = closing ? tagStart + 2 : tagStart + 1;
+            if (nameStart >= length || !Character.isLetter(source.charAt(nameStart))) {
+                // a plain '<' in text
+                i = tagStart + 1;
+                continue;
+            }
+            // quoted attribute values may contain '>'
+            int tagEnd = BudgetScanner.findTagEnd(source, tagStart + 1, length);
+            if (tagEnd < 0) {
+                break;
+            }
+            i = tagEnd + 1;
+
+            int nameEnd = nameStart;
+            while (nameEnd < tagEnd && Character.isLetterOrDigit(source.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            String name = source.substring(nameStart, nameEnd);
+            if (!isBlockTag(name)) {
+                continue;
+            }
+
+            if (closing) {
+                if (depth > 0 && --depth == 0) {
+                    blocks.add(source.substring(blockStart, i));
+                    blockStart = i;
+                }
+            } else if (name.equalsIgnoreCase("hr") || source.charAt(tagEnd - 1) == '/') {
+                if (depth == 0) {
+                    if (tagStart > blockStart) {
+                        blocks.add(source.substring(blockStart, tagStart));
+                    }
+                    blocks.add(source.substring(tagStart, i));
+                    blockStart = i;
+                }
+            } else {
+                // <p> is often left open, a new <p> at top level closes it
+                if (depth == 1 && name.equalsIgnoreCase("p") && isOpenParagraph(source, blockStart)) {
+                    depth = 0;
+                }
+                if (depth == 0 && tagStart > blockStart) {
+                    blocks.add(source.substring(blockStart, tagStart));
+                    blockStart = tagStart;
+                }
+                depth++;
+            }
+        }
+        if (blockStart < length) {
+            blocks.add(source.substring(blockStart));
+        }
+        return blocks;
+    }
+
+    private static boolean isOpenParagraph(String source, int blockStart) {
+        return source.regionMatches(true, blockStart, "<p", 0, 2)
+                && blockStart + 2 < source.length()
+                && !Character.isLetterOrDigit(source.charAt(blockStart + 2));
+    }
+
+    private static boolean isBlockTag(String name) {
+        for (String tag : BLOCK_TAGS) {
+            if (tag.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,389 @@
+package me.wcy.htmltext;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.style.AbsoluteSizeSpan;
+import android.text.style.AlignmentSpan;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.UnderlineSpan;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Declarations of a style attribute resolved to span parameters.<br>
+ * Parsed by hand without regular expressions or substrings, identical style strings share one
+ * instance from a small cache. A span can only be set once in a Spannable, so spans are created
+ * per use, from the shared resolved values.
+ */
+class InlineStyle {
+    private static final int CACHE_SIZE = 128;
+    private static final InlineStyle EMPTY = new InlineStyle();
+    static final long NO_COLOR = -1;
+
+    static final int SIZE_NONE = 0;
+    static final int SIZE_DIP = 1;
+    static final int SIZE_RELATIVE = 2;
+
+    private static final Map<String, InlineStyle> sCache = new LinkedHashMap<String, InlineStyle>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, InlineStyle> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // package-private for tests
+    long color = NO_COLOR;
+    long backgroundColor = NO_COLOR;
+    int sizeType = SIZE_NONE;
+    float size;
+    Layout.Alignment alignment;
+    boolean strikethrough;
+    boolean underline;
+    boolean bold;
+    boolean italic;
+    String fontFamily;
+
+    private InlineStyle() {
+    }
+
+    /**
+     * @return null if nothing supported is declared
+     */
+    static InlineStyle get(String style) {
+        if (style == null) {
+            return null;
+        }
+        InlineStyle inlineStyle;
+        synchronized (sCache) {
+            inlineStyle = sCache.get(style);
+        }
+        if (inlineStyle == null) {
+            inlineStyle = parse(style);
+            synchronized (sCache) {
+                sCache.put(style, inlineStyle);
+            }
+        }
+        return (inlineStyle != EMPTY) ? inlineStyle : null;
+    }
+
+    /**
+     * @param block text-align only applies to block elements
+     */
+    void apply(Editable output, int start, int end, boolean block) {
+        if (start == end) {
+            return;
+        }
+        if (color != NO_COLOR) {
+            setSpan(output, new ForegroundColorSpan((int) color), start, end);
+        }
+        if (backgroundColor != NO_COLOR) {
+            setSpan(output, new BackgroundColorSpan((int) backgroundColor), start, end);
+        }
+        if (sizeType == SIZE_DIP) {
+            setSpan(output, new AbsoluteSizeSpan(Math.round(size), true), start, end);
+        } else if (sizeType == SIZE_RELATIVE) {
+            setSpan(output, new RelativeSizeSpan(size), start, end);
+        }
+        if (alignment != null && block) {
+            setSpan(output, new AlignmentSpan.Standard(alignment), start, end);
+        }
+        if (strikethrough) {
+            setSpan(output, new StrikethroughSpan(), start, end);
+        }
+        if (underline) {
+            setSpan(output, new UnderlineSpan(), start, end);
+        }
+        if (bold || italic) {
+            int style = (bold && italic) ? Typeface.BOLD_ITALIC : (bold ? Typeface.BOLD : Typeface.ITALIC);
+            setSpan(output, new StyleSpan(style), start, end);
+        }
+        if (fontFamily != null) {
+            setSpan(output, new TypefaceSpan(fontFamily), start, end);
+        }
+    }
+
+    private static void setSpan(Editable output, Object span, int start, int end) {
+        output.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
+    static InlineStyle parse(String style) {
+        InlineStyle inlineStyle = new InlineStyle();
+        boolean declared = false;
+        int length = style.length();
+        int i = 0;
+        while (i < length) {
+            int end = style.indexOf(';', i);
+            if (end < 0) {
+                end = length;
+            }
+            int colon = style.indexOf(':', i);
+            if (colon > i && colon < end) {
+                int nameStart = skipSpace(style, i, colon);
+                int nameEnd = trimSpace(style, nameStart, colon);
+                int valueStart = skipSpace(style, colon + 1, end);
+                int valueEnd = trimImportant(style, valueStart, trimSpace(style, valueStart, end));
+                declared |= inlineStyle.declare(style, nameStart, nameEnd, valueStart, valueEnd);
+            }
+            i = end + 1;
+        }
+        return declared ? inlineStyle : EMPTY;
+    }
+
+    /**
+     * @return whether the declaration is supported and valid
+     */
+    private boolean declare(String s, int nameStart, int nameEnd, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        if (is(s, nameStart, nameEnd, "color")) {
+            long value = parseColor(s, start, end);
+            if (value != NO_COLOR) {
+                color = value;
+            }
+            return value != NO_COLOR;
+        } else if (is(s, nameStart, nameEnd, "background-color") || is(s, nameStart, nameEnd, "background")) {
+            long value = parseColor(s, start, end);
+            if (value != NO_COLOR) {
+                backgroundColor = value;
+            }
+            return value != NO_COLOR;
+        } else if (is(s, nameStart, nameEnd, "font-size")) {
+            return parseFontSize(s, start, end);
+        } else if (is(s, nameStart, nameEnd, "text-align")) {
+            if (is(s, start, end, "left") || is(s, start, end, "start") || is(s, start, end, "justify")) {
+                alignment = Layout.Alignment.ALIGN_NORMAL;
+            } else if (is(s, start, end, "right") || is(s, start, end, "end")) {
+                alignment = Layout.Alignment.ALIGN_OPPOSITE;
+            } else if (is(s, start, end, "center")) {
+                alignment = Layout.Alignment.ALIGN_CENTER;
+            }
+            return alignment != null;
+        } else if (is(s, nameStart, nameEnd, "text-decoration") || is(s, nameStart, nameEnd, "text-decoration-line")) {
+            // a list of values, as "underline line-through"
+            for (int i = start; i < end; ) {
+                int wordEnd = i;
+                while (wordEnd < end && s.charAt(wordEnd) != ' ') {
+                    wordEnd++;
+                }
+                if (is(s, i, wordEnd, "line-through")) {
+                    strikethrough = true;
+                } else if (is(s, i, wordEnd, "underline")) {
+                    underline = true;
+                }
+                i = skipSpace(s, wordEnd, end);
+            }
+            return strikethrough || underline;
+        } else if (is(s, nameStart, nameEnd, "font-weight")) {
+            bold = is(s, start, end, "bold") || is(s, start, end, "bolder") || parseNumber(s, start, end, null) >= 600;
+            return bold;
+        } else if (is(s, nameStart, nameEnd, "font-style")) {
+            italic = is(s, start, end, "italic") || is(s, start, end, "oblique");
+            return italic;
+        } else if (is(s, nameStart, nameEnd, "font-family")) {
+            // first family only, without quotes
+            int familyEnd = s.indexOf(',', start);
+            if (familyEnd < 0 || familyEnd > end) {
+                familyEnd = end;
+            }
+            familyEnd = trimSpace(s, start, familyEnd);
+            int familyStart = start;
+            if (familyEnd - familyStart >= 2 && (s.charAt(familyStart) == '"' || s.charAt(familyStart) == '\'')) {
+                familyStart++;
+                familyEnd--;
+            }
+            if (familyStart < familyEnd) {
+                fontFamily = s.substring(familyStart, familyEnd).toLowerCase();
+            }
+            return fontFamily != null;
+        }
+        return false;
+    }
+
+    private boolean parseFontSize(String s, int start, int end) {
+        int[] numberEnd = new int[1];
+        float value = parseNumber(s, start, end, numberEnd);
+        if (value <= 0) {
+            if (is(s, start, end, "smaller")) {
+                sizeType = SIZE_RELATIVE;
+                size = 0.83f;
+            } else if (is(s, start, end, "larger")) {
+                sizeType = SIZE_RELATIVE;
+                size = 1.2f;
+            }
+            return sizeType != SIZE_NONE;
+        }
+        int unitStart = numberEnd[0];
+        if (unitStart == end || is(s, unitStart, end, "px") || is(s, unitStart, end, "dp")) {
+            // css px are device independent, as dp
+            sizeType = SIZE_DIP;
+            size = value;
+        } else if (is(s, unitStart, end, "pt")) {
+            sizeType = SIZE_DIP;
+            size = value * 4 / 3;
+        } else if (is(s, unitStart, end, "em") || is(s, unitStart, end, "rem")) {
+            sizeType = SIZE_RELATIVE;
+            size = value;
+        } else if (is(s, unitStart, end, "%")) {
+            sizeType = SIZE_RELATIVE;
+            size = value / 100;
+        }
+        return sizeType != SIZE_NONE;
+    }
+
+    /**
+     * #rgb #rgba #rrggbb #rrggbbaa rgb() rgba() or a name known to {@link Color#parseColor(String)}
+     */
+    static long parseColor(String s, int start, int end) {
+        if (s.charAt(start) == '#') {
+            int digits = end - start - 1;
+            long value = 0;
+            for (int i = start + 1; i < end; i++) {
+                int digit = Character.digit(s.charAt(i), 16);
+                if (digit < 0) {
+                    return NO_COLOR;
+                }
+                value = (value << 4) | digit;
+            }
+            int r, g, b, a = 0xFF;
+            switch (digits) {
+                case 3:
+                    r = (int) (value >> 8) * 0x11;
+                    g = (int) ((value >> 4) & 0xF) * 0x11;
+                    b = (int) (value & 0xF) * 0x11;
+                    break;
+                case 4:
+                    r = (int) (value >> 12) * 0x11;
+                    g = (int) ((value >> 8) & 0xF) * 0x11;
+                    b = (int) ((value >> 4) & 0xF) * 0x11;
+                    a = (int) (value & 0xF) * 0x11;
+                    break;
+                case 6:
+                    r = (int) (value >> 16);
+                    g = (int) ((value >> 8) & 0xFF);
+                    b = (int) (value & 0xFF);
+                    break;
+                case 8:
+                    r = (int) (value >> 24);
+                    g = (int) ((value >> 16) & 0xFF);
+                    b = (int) ((value >> 8) & 0xFF);
+                    a = (int) (value & 0xFF);
+                    break;
+                default:
+                    return NO_COLOR;
+            }
+            return argb(a, r, g, b);
+        }
+
+        boolean rgba = s.regionMatches(true, start, "rgba(", 0, 5);
+        if (rgba || s.regionMatches(true, start, "rgb(", 0, 4)) {
+            int[] position = {start + (rgba ? 5 : 4)};
+            float[] channels = {0, 0, 0, 1};
+            for (int i = 0; i < channels.length; i++) {
+                int channelStart = skipSpace(s, position[0], end);
+                if (channelStart < end && s.charAt(channelStart) == ')') {
+                    if (i < 3) {
+                        return NO_COLOR;
+                    }
+                    break;
+                }
+                channels[i] = parseNumber(s, channelStart, end, position);
+                if (channels[i] < 0) {
+                    return NO_COLOR;
+                }
+                if (position[0] < end && s.charAt(position[0]) == '%') {
+                    channels[i] = (i < 3) ? channels[i] * 255 / 100 : channels[i] / 100;
+                    position[0]++;
+                }
+                position[0] = skipSpace(s, position[0], end);
+                if (position[0] < end && s.charAt(position[0]) == ',') {
+                    position[0]++;
+                }
+            }
+            return argb(clamp(Math.round(channels[3] * 255)), clamp(Math.round(channels[0])),
+                    clamp(Math.round(channels[1])), clamp(Math.round(channels[2])));
+        }
+
+        try {
+            return Color.parseColor(s.substring(start, end)) & 0xFFFFFFFFL;
+        } catch (IllegalArgumentException e) {
+            return NO_COLOR;
+        }
+    }
+
+    private static long argb(int a, int r, int g, int b) {
+        return ((a << 24) | (r << 16) | (g << 8) | b) & 0xFFFFFFFFL;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(value, 255));
+    }
+
+    /**
+     * Unsigned decimal at start
+     *
+     * @param numberEnd receives the index after the number, may be null
+     * @return the number, -1 if there is none
+     */
+    private static float parseNumber(String s, int start, int end, int[] numberEnd) {
+        float value = 0;
+        float fraction = 0;
+        boolean digits = false;
+        int i = start;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (fraction == 0) {
+                    value = value * 10 + (c - '0');
+                } else {
+                    value += (c - '0') * fraction;
+                    fraction /= 10;
+                }
+            } else if (c == '.' && fraction == 0) {
+                fraction = 0.1f;
+            } else {
+                break;
+            }
+        }
+        if (numberEnd != null) {
+            numberEnd[0] = i;
+        }
+        return digits ? value : -1;
+    }
+
+    private static boolean is(String s, int start, int end, String word) {
+        return end - start == word.length() && s.regionMatches(true, start, word, 0, word.length());
+    }
+
+    private static int skipSpace(String s, int start, int end) {
+        while (start < end && Character.isWhitespace(s.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimSpace(String s, int start, int end) {
+        while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static int trimImportant(String s, int start, int end) {
+        int length = "!important".length();
+        if (end - start >= length && s.regionMatches(true, end - length, "!important", 0, length)) {
+            return trimSpace(s, start, end - length);
+        }
+        return end;
+    }
+}
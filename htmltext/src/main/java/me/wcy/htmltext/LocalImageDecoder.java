@@ -0,0 +1,382 @@
+package me.wcy.htmltext;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decodes images which don't need the app's loader, on worker threads:<br>
+ * data:image/...;base64,... data:image/svg+xml,%3Csvg... and, if enabled,
+ * file:///path asset://path res://id res://type/name<br>
+ * Bitmaps are decoded at the size they are shown at and kept in a memory cache
+ * keyed by a digest of the payload, so the same inline image is decoded once.
+ */
+class LocalImageDecoder {
+    private static final String DATA = "data:";
+    private static final String FILE = "file://";
+    private static final String ANDROID_ASSET = "file:///android_asset/";
+    private static final String ASSET = "asset://";
+    private static final String RES = "res://";
+    private static final String BASE64 = ";base64,";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Executor sDecodeExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HtmlImageDecoder");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final BitmapCache sCache = new BitmapCache(
+            Math.min(Runtime.getRuntime().maxMemory() / 8, 32 * 1024 * 1024));
+
+    private LocalImageDecoder() {
+    }
+
+    /**
+     * @param allowLocal whether file, asset and res uris are decoded, they can read any file the app can
+     */
+    static boolean canDecode(String source, boolean allowLocal) {
+        if (source == null) {
+            return false;
+        }
+        if (source.regionMatches(true, 0, DATA, 0, DATA.length())) {
+            return source.indexOf(',') > 0;
+        }
+        return allowLocal && (source.regionMatches(true, 0, FILE, 0, FILE.length())
+                || source.regionMatches(true, 0, ASSET, 0, ASSET.length())
+                || source.regionMatches(true, 0, RES, 0, RES.length()));
+    }
+
+    /**
+     * @param targetWidth width in px the image is shown at, the bitmap is sub-sampled down to it
+     */
+    static void decode(final Context context, final String source, final int targetWidth,
+                       final HtmlImageLoader.Callback callback) {
+        final String cacheKey = (source.length() < 256) ? source : null;
+        Bitmap cached = (cacheKey != null) ? sCache.get(cacheKey + "@" + targetWidth) : null;
+        if (cached != null) {
+            callback.onLoadComplete(cached);
+            return;
+        }
+
+        sDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // digest of a data uri is computed here, it may be megabytes long
+                String key = ((cacheKey != null) ? cacheKey : digest(source)) + "@" + targetWidth;
+                Bitmap bitmap = sCache.get(key);
+                if (bitmap == null) {
+                    bitmap = decode(context, source, targetWidth);
+                    if (bitmap != null) {
+                        sCache.put(key, bitmap);
+                    }
+                }
+                if (bitmap != null) {
+                    callback.onLoadComplete(bitmap);
+                } else {
+                    callback.onLoadFailed();
+                }
+            }
+        });
+    }
+
+    private static Bitmap decode(Context context, String source, int targetWidth) {
+        try {
+            // bounds first, then the pixels at the smallest sample size not below the target
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeStream(context, source, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            int sampleSize = 1;
+            if (targetWidth > 0) {
+                while (options.outWidth / (sampleSize * 2) >= targetWidth) {
+                    sampleSize *= 2;
+                }
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            return decodeStream(context, source, options);
+        } catch (IOException | OutOfMemoryError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Bitmap decodeStream(Context context, String source, BitmapFactory.Options options) throws IOException {
+        InputStream in = open(context, source);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream open(Context context, String source) throws IOException {
+        if (source.regionMatches(true, 0, DATA, 0, DATA.length())) {
+            int comma = source.indexOf(',');
+            if (source.regionMatches(true, comma - BASE64.length() + 1, BASE64, 0, BASE64.length())) {
+                return new Base64InputStream(source, comma + 1);
+            }
+            return new PercentInputStream(source, comma + 1);
+        }
+        if (source.regionMatches(true, 0, ANDROID_ASSET, 0, ANDROID_ASSET.length())) {
+            return context.getAssets().open(source.substring(ANDROID_ASSET.length()));
+        }
+        if (source.regionMatches(true, 0, FILE, 0, FILE.length())) {
+            return new FileInputStream(source.substring(FILE.length()));
+        }
+        if (source.regionMatches(true, 0, ASSET, 0, ASSET.length())) {
+            return context.getAssets().open(source.substring(ASSET.length()));
+        }
+        if (source.regionMatches(true, 0, RES, 0, RES.length())) {
+            int id = getResourceId(context, source.substring(RES.length()));
+            return (id != 0) ? context.getResources().openRawResource(id) : null;
+        }
+        return null;
+    }
+
+    /**
+     * "2130837504" or "drawable/name"
+     */
+    private static int getResourceId(Context context, String path) {
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            try {
+                return Integer.parseInt(path);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return context.getResources().getIdentifier(path.substring(slash + 1), path.substring(0, slash),
+                context.getPackageName());
+    }
+
+    private static String digest(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            // chunked, a data uri is ascii and shouldn't be copied as a whole
+            byte[] buffer = new byte[4096];
+            int length = source.length();
+            for (int start = 0; start < length; start += buffer.length) {
+                int count = Math.min(buffer.length, length - start);
+                for (int i = 0; i < count; i++) {
+                    buffer[i] = (byte) source.charAt(start + i);
+                }
+                digest.update(buffer, 0, count);
+            }
+            byte[] bytes = digest.digest();
+            char[] hex = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(source.hashCode());
+        }
+    }
+
+    /**
+     * Decodes base64 straight from the chars of the source, no byte array of the whole payload is made
+     */
+    static class Base64InputStream extends InputStream {
+        private final String source;
+        private int position;
+        private final int[] pending = new int[3];
+        private int pendingStart;
+        private int pendingCount;
+
+        Base64InputStream(String source, int start) {
+            this.source = source;
+            this.position = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pendingStart == pendingCount && !fill()) {
+                return -1;
+            }
+            return pending[pendingStart++];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = 0;
+            while (count < len) {
+                if (pendingStart == pendingCount && !fill()) {
+                    break;
+                }
+                b[off + count++] = (byte) pending[pendingStart++];
+            }
+            return (count == 0 && len > 0) ? -1 : count;
+        }
+
+        /**
+         * Decode the next quantum of 4 chars into up to 3 bytes
+         */
+        private boolean fill() {
+            int bits = 0;
+            int chars = 0;
+            int length = source.length();
+            while (chars < 4 && position < length) {
+                char c = source.charAt(position++);
+                int value = decodeChar(c);
+                if (value >= 0) {
+                    bits = (bits << 6) | value;
+                    chars++;
+                } else if (c == '=') {
+                    break;
+                }
+                // line breaks and other white space are skipped
+            }
+            pendingStart = 0;
+            switch (chars) {
+                case 4:
+                    pending[0] = (bits >> 16) & 0xFF;
+                    pending[1] = (bits >> 8) & 0xFF;
+                    pending[2] = bits & 0xFF;
+                    pendingCount = 3;
+                    return true;
+                case 3:
+                    bits <<= 6;
+                    pending[0] = (bits >> 16) & 0xFF;
+                    pending[1] = (bits >> 8) & 0xFF;
+                    pendingCount = 2;
+                    position = length;
+                    return true;
+                case 2:
+                    bits <<= 12;
+                    pending[0] = (bits >> 16) & 0xFF;
+                    pendingCount = 1;
+                    position = length;
+                    return true;
+                default:
+                    pendingCount = 0;
+                    position = length;
+                    return false;
+            }
+        }
+
+        private static int decodeChar(char c) {
+            if (c >= 'A' && c <= 'Z') {
+                return c - 'A';
+            } else if (c >= 'a' && c <= 'z') {
+                return c - 'a' + 26;
+            } else if (c >= '0' && c <= '9') {
+                return c - '0' + 52;
+            } else if (c == '+' || c == '-') {
+                return 62;
+            } else if (c == '/' || c == '_') {
+                return 63;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Bytes of a data uri without base64, as its chars with %XX escapes decoded
+     */
+    static class PercentInputStream extends InputStream {
+        private final String source;
+        private int position;
+
+        PercentInputStream(String source, int start) {
+            this.source = source;
+            this.position = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int length = source.length();
+            if (position >= length) {
+                return -1;
+            }
+            char c = source.charAt(position++);
+            if (c == '%' && position + 1 < length) {
+                int high = Character.digit(source.charAt(position), 16);
+                int low = Character.digit(source.charAt(position + 1), 16);
+                if (high >= 0 && low >= 0) {
+                    position += 2;
+                    return (high << 4) | low;
+                }
+            }
+            // other chars are ascii in a valid uri, keep the low byte of any other
+            return c & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = 0;
+            while (count < len) {
+                int value = read();
+                if (value < 0) {
+                    break;
+                }
+                b[off + count++] = (byte) value;
+            }
+            return (count == 0 && len > 0) ? -1 : count;
+        }
+    }
+
+    /**
+     * LRU of decoded bitmaps bounded by their size in bytes
+     */
+    private static class BitmapCache {
+        private final long maxSize;
+        private final Map<String, Bitmap> map = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        BitmapCache(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized Bitmap get(String key) {
+            Bitmap bitmap = map.get(key);
+            if (bitmap != null && bitmap.isRecycled()) {
+                map.remove(key);
+                size -= sizeOf(bitmap);
+                return null;
+            }
+            return bitmap;
+        }
+
+        synchronized void put(String key, Bitmap bitmap) {
+            long bitmapSize = sizeOf(bitmap);
+            if (bitmapSize > maxSize) {
+                return;
+            }
+            Bitmap previous = map.put(key, bitmap);
+            if (previous != null) {
+                size -= sizeOf(previous);
+            }
+            size += bitmapSize;
+            for (Iterator<Bitmap> it = map.values().iterator(); it.hasNext() && size > maxSize; ) {
+                size -= sizeOf(it.next());
+                it.remove();
+            }
+        }
+
+        private static long sizeOf(Bitmap bitmap) {
+            // getByteCount needs api 12
+            return (long) bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    }
+}
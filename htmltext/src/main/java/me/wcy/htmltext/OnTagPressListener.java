@@ -0,0 +1,21 @@
+package me.wcy.htmltext;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * 图片、链接按下监听器，手指按下时回调，可提前加载大图或链接<br>
+ * 由{@link OnTagClickListener}的实现类同时实现，需使用{@link HtmlLinkMovementMethod}
+ */
+public interface OnTagPressListener {
+    /**
+     * 图片被按下
+     */
+    void onImagePress(Context context, List<String> imageUrlList, int position);
+
+    /**
+     * 链接被按下
+     */
+    void onLinkPress(Context context, String url);
+}
@@ -0,0 +1,159 @@
+package me.wcy.htmltext;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.view.View;
+
+/**
+ * 渲染预算，用于渲染不可信的 HTML<br>
+ * 超出任一限制时截断或降级为纯文本，并回调超出的限制
+ */
+public class RenderBudget {
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    /**
+     * 可被超出的限制
+     */
+    public enum Limit {
+        INPUT_CHARS,
+        TAG_COUNT,
+        NESTING_DEPTH,
+        IMAGE_COUNT,
+        TIME
+    }
+
+    /**
+     * 超出限制后的处理方式
+     */
+    public enum Fallback {
+        /**
+         * 保留限制之前的内容
+         */
+        TRUNCATE,
+        /**
+         * 去掉所有标签，显示纯文本
+         */
+        PLAIN_TEXT
+    }
+
+    /**
+     * 超出限制回调
+     */
+    public interface OnLimitListener {
+        void onLimit(Limit limit);
+    }
+
+    int maxInputChars = UNLIMITED;
+    int maxTagCount = UNLIMITED;
+    int maxNestingDepth = UNLIMITED;
+    int maxImageCount = UNLIMITED;
+    long maxTimeMillis = UNLIMITED;
+    Fallback fallback = Fallback.TRUNCATE;
+    private CharSequence showMoreText;
+    private View.OnClickListener onShowMoreClickListener;
+    private OnLimitListener onLimitListener;
+
+    /**
+     * 最大输入字符数
+     */
+    public RenderBudget setMaxInputChars(int maxInputChars) {
+        this.maxInputChars = maxInputChars;
+        return this;
+    }
+
+    /**
+     * 最大标签数
+     */
+    public RenderBudget setMaxTagCount(int maxTagCount) {
+        this.maxTagCount = maxTagCount;
+        return this;
+    }
+
+    /**
+     * 最大嵌套深度
+     */
+    public RenderBudget setMaxNestingDepth(int maxNestingDepth) {
+        this.maxNestingDepth = maxNestingDepth;
+        return this;
+    }
+
+    /**
+     * 最大图片数
+     */
+    public RenderBudget setMaxImageCount(int maxImageCount) {
+        this.maxImageCount = maxImageCount;
+        return this;
+    }
+
+    /**
+     * 最大解析耗时
+     */
+    public RenderBudget setMaxTimeMillis(long maxTimeMillis) {
+        this.maxTimeMillis = maxTimeMillis;
+        return this;
+    }
+
+    /**
+     * 超出限制后的处理方式，默认为{@link Fallback#TRUNCATE}
+     */
+    public RenderBudget setFallback(Fallback fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    /**
+     * 截断时在末尾追加"显示更多"
+     */
+    public RenderBudget setShowMore(CharSequence text, View.OnClickListener listener) {
+        this.showMoreText = text;
+        this.onShowMoreClickListener = listener;
+        return this;
+    }
+
+    /**
+     * 设置超出限制回调
+     */
+    public RenderBudget setOnLimitListener(OnLimitListener onLimitListener) {
+        this.onLimitListener = onLimitListener;
+        return this;
+    }
+
+    void notifyLimit(Limit limit) {
+        if (onLimitListener != null) {
+            onLimitListener.onLimit(limit);
+        }
+    }
+
+    void appendShowMore(SpannableStringBuilder ssb) {
+        if (showMoreText == null || showMoreText.length() == 0) {
+            return;
+        }
+
+        if (ssb.length() > 0 && ssb.charAt(ssb.length() - 1) != '\n') {
+            ssb.append("\n");
+        }
+        int start = ssb.length();
+        ssb.append(showMoreText);
+        ssb.setSpan(new ClickableSpan() {
+            @Override
+            public void onClick(View widget) {
+                if (onShowMoreClickListener != null) {
+                    onShowMoreClickListener.onClick(widget);
+                }
+            }
+        }, start, ssb.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
+    /**
+     * Thrown from parsing callbacks to abort {@link android.text.Html#fromHtml} once time is up
+     */
+    static class ExceededException extends RuntimeException {
+        final Limit limit;
+
+        ExceededException(Limit limit) {
+            super("Render budget exceeded: " + limit);
+            this.limit = limit;
+        }
+    }
+}
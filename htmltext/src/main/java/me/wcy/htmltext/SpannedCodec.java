@@ -0,0 +1,394 @@
+package me.wcy.htmltext;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.text.Layout;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextPaint;
+import android.text.style.AbsoluteSizeSpan;
+import android.text.style.AlignmentSpan;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.BulletSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.ImageSpan;
+import android.text.style.LeadingMarginSpan;
+import android.text.style.QuoteSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.SubscriptSpan;
+import android.text.style.SuperscriptSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.UnderlineSpan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.wcy.htmltext.span.ImageClickSpan;
+import me.wcy.htmltext.span.LinkClickSpan;
+import me.wcy.htmltext.span.NumberSpan;
+
+/**
+ * Compact binary form of a rendered document: the text and a table of
+ * (kind, start, end, flags, params) for the spans this library produces.<br>
+ * Bump {@link #VERSION} whenever the format or the meaning of a kind changes,
+ * older data is then discarded.<br>
+ * Parameters are shared by the spans of a document on decode, the span objects are not:
+ * a Spannable holds each object at one range only, setting it again moves it.
+ */
+class SpannedCodec {
+    private static final int MAGIC = 0x48545854; // HTXT
+    static final int VERSION = 2;
+    private static final String UTF_8 = "UTF-8";
+
+    private static final byte KIND_FOREGROUND_COLOR = 1;
+    private static final byte KIND_BACKGROUND_COLOR = 2;
+    private static final byte KIND_ABSOLUTE_SIZE = 3;
+    private static final byte KIND_RELATIVE_SIZE = 4;
+    private static final byte KIND_TYPEFACE = 5;
+    private static final byte KIND_STYLE = 6;
+    private static final byte KIND_UNDERLINE = 7;
+    private static final byte KIND_STRIKETHROUGH = 8;
+    private static final byte KIND_SUBSCRIPT = 9;
+    private static final byte KIND_SUPERSCRIPT = 10;
+    private static final byte KIND_ALIGNMENT = 11;
+    private static final byte KIND_LEADING_MARGIN = 12;
+    private static final byte KIND_BULLET = 13;
+    private static final byte KIND_QUOTE = 14;
+    private static final byte KIND_NUMBER = 15;
+    private static final byte KIND_LINK = 16;
+    private static final byte KIND_IMAGE = 17;
+
+    /**
+     * Leading margin of a BulletSpan without gap, differs between platform versions
+     */
+    private static final int BULLET_BASE_MARGIN = new BulletSpan(0).getLeadingMargin(true);
+
+    /**
+     * @return null if the document contains a span which can not be compiled
+     */
+    static byte[] encode(Spanned text, HtmlImageGetter imageGetter) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() * 2);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, text.toString());
+
+            Object[] spans = text.getSpans(0, text.length(), Object.class);
+            int count = 0;
+            for (Object span : spans) {
+                if (!(span instanceof ImageClickSpan)) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+
+            Map<NumberSpan.Gutter, Integer> gutters = new IdentityHashMap<>();
+            int imagePosition = 0;
+            for (Object span : spans) {
+                if (span instanceof ImageClickSpan) {
+                    // created again together with its image
+                    continue;
+                }
+                byte kind = kindOf(span);
+                if (kind == 0) {
+                    return null;
+                }
+                out.writeByte(kind);
+                out.writeInt(text.getSpanStart(span));
+                out.writeInt(text.getSpanEnd(span));
+                out.writeInt(text.getSpanFlags(span));
+                switch (kind) {
+                    case KIND_FOREGROUND_COLOR:
+                        out.writeInt(((ForegroundColorSpan) span).getForegroundColor());
+                        break;
+                    case KIND_BACKGROUND_COLOR:
+                        out.writeInt(((BackgroundColorSpan) span).getBackgroundColor());
+                        break;
+                    case KIND_ABSOLUTE_SIZE:
+                        out.writeInt(((AbsoluteSizeSpan) span).getSize());
+                        out.writeBoolean(((AbsoluteSizeSpan) span).getDip());
+                        break;
+                    case KIND_RELATIVE_SIZE:
+                        out.writeFloat(((RelativeSizeSpan) span).getSizeChange());
+                        break;
+                    case KIND_TYPEFACE:
+                        writeString(out, ((TypefaceSpan) span).getFamily());
+                        break;
+                    case KIND_STYLE:
+                        out.writeInt(((StyleSpan) span).getStyle());
+                        break;
+                    case KIND_ALIGNMENT:
+                        out.writeInt(((AlignmentSpan) span).getAlignment().ordinal());
+                        break;
+                    case KIND_LEADING_MARGIN:
+                        out.writeInt(((LeadingMarginSpan) span).getLeadingMargin(true));
+                        out.writeInt(((LeadingMarginSpan) span).getLeadingMargin(false));
+                        break;
+                    case KIND_BULLET:
+                        out.writeInt(((BulletSpan) span).getLeadingMargin(true) - BULLET_BASE_MARGIN);
+                        break;
+                    case KIND_QUOTE:
+                        out.writeInt(((QuoteSpan) span).getColor());
+                        break;
+                    case KIND_NUMBER:
+                        NumberSpan numberSpan = (NumberSpan) span;
+                        int gutterId = -1;
+                        if (numberSpan.getGutter() != null) {
+                            Integer id = gutters.get(numberSpan.getGutter());
+                            if (id == null) {
+                                id = gutters.size();
+                                gutters.put(numberSpan.getGutter(), id);
+                            }
+                            gutterId = id;
+                        }
+                        out.writeInt(numberSpan.getNumber());
+                        out.writeInt(gutterId);
+                        break;
+                    case KIND_LINK:
+                        writeString(out, ((LinkClickSpan) span).getUrl());
+                        break;
+                    case KIND_IMAGE:
+                        ImageSpan imageSpan = (ImageSpan) span;
+                        int[] size = imageGetter.getImageSize(imagePosition);
+                        String[] preview = imageGetter.getImagePreview(imagePosition++);
+                        writeString(out, imageSpan.getSource());
+                        out.writeInt(imageSpan.getVerticalAlignment());
+                        out.writeInt(size[0]);
+                        out.writeInt(size[1]);
+                        writeString(out, preview[0]);
+                        writeString(out, preview[1]);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return null if the data is corrupted or from another format version
+     * @throws RenderBudget.ExceededException if the render time runs out while decoding
+     */
+    static SpannableStringBuilder decode(byte[] data, HtmlImageGetter imageGetter, TextPaint textPaint,
+                                         Context context, OnTagClickListener listener, List<String> imageUrls) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            String text = readString(in);
+            if (text == null) {
+                return null;
+            }
+            SpannableStringBuilder ssb = new SpannableStringBuilder(text);
+            int length = text.length();
+
+            // parameters shared by all spans of this document
+            Map<String, String> strings = new HashMap<>();
+            Layout.Alignment[] alignments = Layout.Alignment.values();
+            List<NumberSpan.Gutter> gutters = new ArrayList<>();
+            List<Integer> gutterMax = new ArrayList<>();
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte kind = in.readByte();
+                int start = in.readInt();
+                int end = in.readInt();
+                int flags = in.readInt();
+                if (start < 0 || end > length || start > end) {
+                    return null;
+                }
+                Object span;
+                switch (kind) {
+                    case KIND_FOREGROUND_COLOR:
+                        span = new ForegroundColorSpan(in.readInt());
+                        break;
+                    case KIND_BACKGROUND_COLOR:
+                        span = new BackgroundColorSpan(in.readInt());
+                        break;
+                    case KIND_ABSOLUTE_SIZE:
+                        span = new AbsoluteSizeSpan(in.readInt(), in.readBoolean());
+                        break;
+                    case KIND_RELATIVE_SIZE:
+                        span = new RelativeSizeSpan(in.readFloat());
+                        break;
+                    case KIND_TYPEFACE:
+                        span = new TypefaceSpan(intern(strings, readString(in)));
+                        break;
+                    case KIND_STYLE:
+                        span = new StyleSpan(in.readInt());
+                        break;
+                    case KIND_UNDERLINE:
+                        span = new UnderlineSpan();
+                        break;
+                    case KIND_STRIKETHROUGH:
+                        span = new StrikethroughSpan();
+                        break;
+                    case KIND_SUBSCRIPT:
+                        span = new SubscriptSpan();
+                        break;
+                    case KIND_SUPERSCRIPT:
+                        span = new SuperscriptSpan();
+                        break;
+                    case KIND_ALIGNMENT:
+                        span = new AlignmentSpan.Standard(alignments[in.readInt()]);
+                        break;
+                    case KIND_LEADING_MARGIN:
+                        span = new LeadingMarginSpan.Standard(in.readInt(), in.readInt());
+                        break;
+                    case KIND_BULLET:
+                        span = new BulletSpan(in.readInt());
+                        break;
+                    case KIND_QUOTE:
+                        span = new QuoteSpan(in.readInt());
+                        break;
+                    case KIND_NUMBER:
+                        int number = in.readInt();
+                        int gutterId = in.readInt();
+                        if (gutterId < 0) {
+                            span = new NumberSpan(textPaint, number);
+                        } else {
+                            while (gutters.size() <= gutterId) {
+                                gutters.add(new NumberSpan.Gutter());
+                                gutterMax.add(0);
+                            }
+                            gutterMax.set(gutterId, Math.max(gutterMax.get(gutterId), number));
+                            span = new NumberSpan(gutters.get(gutterId), number);
+                        }
+                        break;
+                    case KIND_LINK:
+                        LinkClickSpan linkClickSpan = new LinkClickSpan(context, intern(strings, readString(in)));
+                        linkClickSpan.setListener(listener);
+                        span = linkClickSpan;
+                        break;
+                    case KIND_IMAGE:
+                        String source = intern(strings, readString(in));
+                        int verticalAlignment = in.readInt();
+                        int width = in.readInt();
+                        int height = in.readInt();
+                        imageGetter.addImageSize(width, height, readString(in), readString(in));
+                        Drawable drawable = imageGetter.getDrawable(source);
+                        ImageClickSpan imageClickSpan = new ImageClickSpan(context, imageUrls, imageUrls.size());
+                        imageClickSpan.setListener(listener);
+                        imageUrls.add(source);
+                        ssb.setSpan(new ImageSpan(drawable, source, verticalAlignment), start, end, flags);
+                        span = imageClickSpan;
+                        flags = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+                        break;
+                    default:
+                        return null;
+                }
+                ssb.setSpan(span, start, end, flags);
+            }
+            if (in.available() > 0) {
+                // more than the spans counted
+                return null;
+            }
+
+            // same as closing the ordered lists while parsing
+            for (int i = 0; i < gutters.size(); i++) {
+                gutters.get(i).measure(textPaint, gutterMax.get(i));
+            }
+            return ssb;
+        } catch (RenderBudget.ExceededException e) {
+            // not a fault of the data
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Exact classes only, a subclass may draw differently than the span created on decode
+     */
+    private static byte kindOf(Object span) {
+        Class<?> clazz = span.getClass();
+        if (clazz == ForegroundColorSpan.class) {
+            return KIND_FOREGROUND_COLOR;
+        } else if (clazz == BackgroundColorSpan.class) {
+            return KIND_BACKGROUND_COLOR;
+        } else if (clazz == AbsoluteSizeSpan.class) {
+            return KIND_ABSOLUTE_SIZE;
+        } else if (clazz == RelativeSizeSpan.class) {
+            return KIND_RELATIVE_SIZE;
+        } else if (clazz == TypefaceSpan.class) {
+            return KIND_TYPEFACE;
+        } else if (clazz == StyleSpan.class) {
+            return KIND_STYLE;
+        } else if (clazz == UnderlineSpan.class) {
+            return KIND_UNDERLINE;
+        } else if (clazz == StrikethroughSpan.class) {
+            return KIND_STRIKETHROUGH;
+        } else if (clazz == SubscriptSpan.class) {
+            return KIND_SUBSCRIPT;
+        } else if (clazz == SuperscriptSpan.class) {
+            return KIND_SUPERSCRIPT;
+        } else if (clazz == AlignmentSpan.Standard.class) {
+            return KIND_ALIGNMENT;
+        } else if (clazz == LeadingMarginSpan.Standard.class) {
+            return KIND_LEADING_MARGIN;
+        } else if (clazz == BulletSpan.class) {
+            return KIND_BULLET;
+        } else if (clazz == QuoteSpan.class) {
+            return KIND_QUOTE;
+        } else if (clazz == NumberSpan.class) {
+            return KIND_NUMBER;
+        } else if (clazz == LinkClickSpan.class) {
+            return KIND_LINK;
+        } else if (clazz == ImageSpan.class) {
+            return KIND_IMAGE;
+        }
+        return 0;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            // corrupted length, don't allocate it
+            throw new IOException("string length " + length + " beyond the data");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static String intern(Map<String, String> strings, String s) {
+        if (s == null) {
+            return null;
+        }
+        String shared = strings.get(s);
+        if (shared == null) {
+            strings.put(s, s);
+            shared = s;
+        }
+        return shared;
+    }
+}
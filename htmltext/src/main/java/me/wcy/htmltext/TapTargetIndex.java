@@ -0,0 +1,157 @@
+package me.wcy.htmltext;
+
+import android.text.NoCopySpan;
+import android.text.SpanWatcher;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.widget.TextView;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import me.wcy.htmltext.span.TableSpan;
+
+/**
+ * Clickable spans of a text sorted by their start, a tap is resolved with a binary search
+ * instead of collecting the spans over the offset.<br>
+ * Built on the first tap and kept until a clickable span or a table of the text is added, removed or moved.
+ * It watches only the text it is built for, a copy of the text gets its own index.
+ */
+class TapTargetIndex implements SpanWatcher, NoCopySpan {
+    private final Spannable text;
+    private ClickableSpan[] targets;
+    private int[] starts;
+    private int[] ends;
+    /**
+     * Largest end of the targets up to each one, bounds the backward scan for nested targets
+     */
+    private int[] maxEnds;
+    /**
+     * Tables sorted by their start, the char of each one is hit by taps on its cells
+     */
+    private TableSpan[] tables;
+    private int[] tableStarts;
+    private boolean dirty = true;
+
+    private TapTargetIndex(Spannable text) {
+        this.text = text;
+    }
+
+    /**
+     * The index of the text, kept on the widget so taps don't have to look for it among the spans
+     */
+    static TapTargetIndex get(TextView widget, Spannable text) {
+        Object tag = widget.getTag(R.id.html_text_tap_targets);
+        TapTargetIndex index = (tag instanceof TapTargetIndex) ? (TapTargetIndex) tag : null;
+        if (index == null || index.text != text) {
+            index = new TapTargetIndex(text);
+            text.setSpan(index, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+            widget.setTag(R.id.html_text_tap_targets, index);
+        }
+        if (index.dirty) {
+            index.build();
+        }
+        return index;
+    }
+
+    /**
+     * Innermost clickable span over the char at offset, null for none
+     */
+    ClickableSpan find(int offset) {
+        // last target starting at or before offset
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = high; i >= 0 && maxEnds[i] > offset; i--) {
+            if (ends[i] > offset) {
+                return targets[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Table drawn at offset, null for none
+     */
+    TableSpan findTable(int offset) {
+        int index = Arrays.binarySearch(tableStarts, offset);
+        return (index >= 0) ? tables[index] : null;
+    }
+
+    private void build() {
+        final ClickableSpan[] spans = text.getSpans(0, text.length(), ClickableSpan.class);
+        final int[] spanStarts = new int[spans.length];
+        Integer[] order = new Integer[spans.length];
+        for (int i = 0; i < spans.length; i++) {
+            spanStarts[i] = text.getSpanStart(spans[i]);
+            order[i] = i;
+        }
+        // stable, of targets starting together the one added later stays later, as getSpans prefers it
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                int s1 = spanStarts[i1];
+                int s2 = spanStarts[i2];
+                return (s1 < s2) ? -1 : ((s1 == s2) ? 0 : 1);
+            }
+        });
+
+        targets = new ClickableSpan[spans.length];
+        starts = new int[spans.length];
+        ends = new int[spans.length];
+        maxEnds = new int[spans.length];
+        int maxEnd = 0;
+        for (int i = 0; i < spans.length; i++) {
+            ClickableSpan span = spans[order[i]];
+            targets[i] = span;
+            starts[i] = spanStarts[order[i]];
+            ends[i] = text.getSpanEnd(span);
+            maxEnd = Math.max(maxEnd, ends[i]);
+            maxEnds[i] = maxEnd;
+        }
+
+        final TableSpan[] tableSpans = text.getSpans(0, text.length(), TableSpan.class);
+        Arrays.sort(tableSpans, new Comparator<TableSpan>() {
+            @Override
+            public int compare(TableSpan t1, TableSpan t2) {
+                return text.getSpanStart(t1) - text.getSpanStart(t2);
+            }
+        });
+        tables = tableSpans;
+        tableStarts = new int[tableSpans.length];
+        for (int i = 0; i < tableSpans.length; i++) {
+            tableStarts[i] = text.getSpanStart(tableSpans[i]);
+        }
+        dirty = false;
+    }
+
+    @Override
+    public void onSpanAdded(Spannable text, Object what, int start, int end) {
+        if (what instanceof ClickableSpan || what instanceof TableSpan) {
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void onSpanRemoved(Spannable text, Object what, int start, int end) {
+        if (what instanceof ClickableSpan || what instanceof TableSpan) {
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend) {
+        // the index itself changes when the text is edited
+        if (what instanceof ClickableSpan || what instanceof TableSpan || what == this) {
+            dirty = true;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package me.wcy.htmltext.span;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.text.style.ReplacementSpan;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws an emoji cut from a sprite sheet in place of its code, sized to the text.<br>
+ * All emoji of a {@link Sheet} draw from the same bitmap, scaled down once per size bucket,
+ * so thousands of emoji cost a few bitmaps and no drawable of their own.
+ */
+public class EmojiSpan extends ReplacementSpan {
+    /**
+     * Emoji are this much larger than the text size
+     */
+    private static final float SCALE = 1.2f;
+    private static final Paint sPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // only drawn on the main thread
+    private static final Rect sSrc = new Rect();
+    private static final Rect sDst = new Rect();
+
+    private final Sheet mSheet;
+    private final Rect mCell;
+    private final Paint.FontMetricsInt mFontMetrics = new Paint.FontMetricsInt();
+
+    /**
+     * @param cell bounds of the emoji in the sheet
+     */
+    public EmojiSpan(Sheet sheet, Rect cell) {
+        mSheet = sheet;
+        mCell = cell;
+    }
+
+    @Override
+    public int getSize(Paint paint, CharSequence text, int start, int end, Paint.FontMetricsInt fm) {
+        int size = size(paint);
+        if (fm != null) {
+            paint.getFontMetricsInt(fm);
+            // bottom on the descent, taller lines only if the emoji is taller than the font
+            fm.ascent = Math.min(fm.ascent, fm.descent - size);
+            fm.top = Math.min(fm.top, fm.ascent);
+        }
+        return size;
+    }
+
+    @Override
+    public void draw(Canvas canvas, CharSequence text, int start, int end, float x, int top, int y, int bottom, Paint paint) {
+        int size = size(paint);
+        float scale = mSheet.scale(size, mCell.height());
+        Bitmap bitmap = mSheet.get(scale);
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        paint.getFontMetricsInt(mFontMetrics);
+        int emojiBottom = y + mFontMetrics.descent;
+        // the cell in the bitmap returned, the full sheet if scaling ran out of memory
+        float scaleX = (float) bitmap.getWidth() / mSheet.mBitmap.getWidth();
+        float scaleY = (float) bitmap.getHeight() / mSheet.mBitmap.getHeight();
+        sSrc.set((int) (mCell.left * scaleX), (int) (mCell.top * scaleY),
+                (int) (mCell.right * scaleX), (int) (mCell.bottom * scaleY));
+        sDst.set((int) x, emojiBottom - size, (int) x + size, emojiBottom);
+        canvas.drawBitmap(bitmap, sSrc, sDst, sPaint);
+    }
+
+    private static int size(Paint paint) {
+        return Math.round(paint.getTextSize() * SCALE);
+    }
+
+    /**
+     * A sprite sheet shared by its emoji, with its scaled copies
+     */
+    public static class Sheet {
+        /**
+         * Sizes are rounded up to a multiple of this, each one gets a scaled copy of the sheet
+         */
+        private static final int BUCKET = 8;
+        private static final int MAX_BUCKETS = 4;
+
+        private final Bitmap mBitmap;
+        private final Map<Integer, Bitmap> mScaled = new LinkedHashMap<Integer, Bitmap>(4, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Bitmap> eldest) {
+                return size() > MAX_BUCKETS;
+            }
+        };
+
+        public Sheet(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+
+        /**
+         * Scale of the copy to draw a cell of cellHeight at size from, never above 1
+         */
+        float scale(int size, int cellHeight) {
+            if (cellHeight <= 0) {
+                return 1f;
+            }
+            int bucket = (size + BUCKET - 1) / BUCKET * BUCKET;
+            return Math.min(1f, (float) bucket / cellHeight);
+        }
+
+        Bitmap get(float scale) {
+            if (scale >= 1f) {
+                return mBitmap;
+            }
+            int key = Float.floatToIntBits(scale);
+            Bitmap scaled = mScaled.get(key);
+            if (scaled == null || scaled.isRecycled()) {
+                int width = Math.max(1, (int) (mBitmap.getWidth() * scale));
+                int height = Math.max(1, (int) (mBitmap.getHeight() * scale));
+                try {
+                    scaled = Bitmap.createScaledBitmap(mBitmap, width, height, true);
+                } catch (OutOfMemoryError e) {
+                    return mBitmap;
+                }
+                mScaled.put(key, scaled);
+            }
+            return scaled;
+        }
+    }
+}
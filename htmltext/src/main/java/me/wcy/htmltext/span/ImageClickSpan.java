@@ -8,6 +8,7 @@ import android.view.View;
 import java.util.List;
 
 import me.wcy.htmltext.OnTagClickListener;
+import me.wcy.htmltext.OnTagPressListener;
 
 /**
  * Created by hzwangchenyan on 2017/5/5.
@@ -28,6 +29,18 @@ public class ImageClickSpan extends ClickableSpan {
         this.listener = listener;
     }
 
+    public String getImageUrl() {
+        return (position < imageUrls.size()) ? imageUrls.get(position) : null;
+    }
+
+    /**
+     * Move the span to another url list, e.g. after the document was partly rendered again
+     */
+    public void setImageUrls(List<String> imageUrls, int position) {
+        this.imageUrls = imageUrls;
+        this.position = position;
+    }
+
     @Override
     public void onClick(View widget) {
         if (listener != null) {
@@ -35,6 +48,15 @@ public class ImageClickSpan extends ClickableSpan {
         }
     }
 
+    /**
+     * Touch down, before the click
+     */
+    public void onPress(View widget) {
+        if (listener instanceof OnTagPressListener) {
+            ((OnTagPressListener) listener).onImagePress(context, imageUrls, position);
+        }
+    }
+
     @Override
     public void updateDrawState(TextPaint ds) {
         ds.setColor(ds.linkColor);
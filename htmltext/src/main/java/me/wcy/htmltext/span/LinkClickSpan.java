@@ -5,6 +5,7 @@ import android.text.style.ClickableSpan;
 import android.view.View;
 
 import me.wcy.htmltext.OnTagClickListener;
+import me.wcy.htmltext.OnTagPressListener;
 
 /**
  * Created by hzwangchenyan on 2017/5/5.
@@ -23,10 +24,23 @@ public class LinkClickSpan extends ClickableSpan {
         this.listener = listener;
     }
 
+    public String getUrl() {
+        return url;
+    }
+
     @Override
     public void onClick(View widget) {
         if (listener != null) {
             listener.onLinkClick(context, url);
         }
     }
+
+    /**
+     * Touch down, before the click
+     */
+    public void onPress(View widget) {
+        if (listener instanceof OnTagPressListener) {
+            ((OnTagPressListener) listener).onLinkPress(context, url);
+        }
+    }
 }
@@ -19,28 +19,63 @@ package me.wcy.htmltext.span;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Typeface;
 import android.text.Layout;
 import android.text.Spanned;
 import android.text.TextPaint;
 import android.text.style.LeadingMarginSpan;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Class to use Numbered Lists in TextViews.
  * The span works the same as {@link android.text.style.BulletSpan} and all lines of the entry have
  * the same leading margin.
  */
 public class NumberSpan implements LeadingMarginSpan {
+    private static final int WIDTH_CACHE_SIZE = 64;
+    private static final Map<WidthKey, Integer> sWidthCache = new LinkedHashMap<WidthKey, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<WidthKey, Integer> eldest) {
+            return size() > WIDTH_CACHE_SIZE;
+        }
+    };
+
+    private final int mValue;
     private final String mNumber;
     private final int mTextWidth;
+    private final Gutter mGutter;
 
     public NumberSpan(TextPaint textPaint, int number) {
-        mNumber = Integer.toString(number).concat(". ");
-        mTextWidth = (int) textPaint.measureText(mNumber);
+        mValue = number;
+        mNumber = label(number);
+        mTextWidth = measure(textPaint, number);
+        mGutter = null;
+    }
+
+    /**
+     * All items sharing the same {@link Gutter} have the same leading margin,
+     * so the text of the whole list lines up
+     */
+    public NumberSpan(Gutter gutter, int number) {
+        mValue = number;
+        mNumber = label(number);
+        mTextWidth = 0;
+        mGutter = gutter;
+    }
+
+    public int getNumber() {
+        return mValue;
+    }
+
+    public Gutter getGutter() {
+        return mGutter;
     }
 
     @Override
     public int getLeadingMargin(boolean first) {
-        return mTextWidth;
+        return (mGutter != null) ? mGutter.width : mTextWidth;
     }
 
     @Override
@@ -54,4 +89,95 @@ public class NumberSpan implements LeadingMarginSpan {
             }
         }
     }
+
+    private static String label(int number) {
+        return Integer.toString(number).concat(". ");
+    }
+
+    /**
+     * Width of "N. " measured with the given paint, cached by paint metrics and digit count.
+     * Digits of a text font have the same width, so a label of zeros stands for all the numbers
+     * with as many digits and a list is measured once per digit count, not once per item.
+     */
+    private static int measure(TextPaint textPaint, int number) {
+        int digits = digits(number);
+        WidthKey key = new WidthKey(textPaint, digits);
+        synchronized (sWidthCache) {
+            Integer width = sWidthCache.get(key);
+            if (width != null) {
+                return width;
+            }
+        }
+        StringBuilder label = new StringBuilder(digits + 2);
+        while (label.length() < digits) {
+            label.append('0');
+        }
+        int width = (int) textPaint.measureText(label.append(". ").toString());
+        synchronized (sWidthCache) {
+            sWidthCache.put(key, width);
+        }
+        return width;
+    }
+
+    private static int digits(int number) {
+        int digits = 1;
+        for (int n = Math.abs(number); n >= 10; n /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Leading margin shared by all items of one ordered list.
+     * The widest label is measured once, when the list ends.
+     */
+    public static class Gutter {
+        private int width;
+
+        public void measure(TextPaint textPaint, int maxNumber) {
+            width = NumberSpan.measure(textPaint, Math.max(maxNumber, 1));
+        }
+
+        public int getWidth() {
+            return width;
+        }
+    }
+
+    private static class WidthKey {
+        private final float textSize;
+        private final float textScaleX;
+        private final Typeface typeface;
+        private final int digits;
+
+        WidthKey(TextPaint textPaint, int digits) {
+            this.textSize = textPaint.getTextSize();
+            this.textScaleX = textPaint.getTextScaleX();
+            this.typeface = textPaint.getTypeface();
+            this.digits = digits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WidthKey)) {
+                return false;
+            }
+            WidthKey key = (WidthKey) o;
+            return digits == key.digits
+                    && Float.compare(textSize, key.textSize) == 0
+                    && Float.compare(textScaleX, key.textScaleX) == 0
+                    && (typeface == null ? key.typeface == null : typeface.equals(key.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(textSize);
+            result = 31 * result + Float.floatToIntBits(textScaleX);
+            result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+            result = 31 * result + digits;
+            return result;
+        }
+    }
 }
@@ -0,0 +1,303 @@
+package me.wcy.htmltext.span;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.style.ClickableSpan;
+import android.text.style.ImageSpan;
+import android.text.style.ReplacementSpan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws a table in place of one character.<br>
+ * Column widths and cell layouts are measured once for a paint, and again only when the text size,
+ * typeface or the size of an image in a cell changes, so redraws and scrolling never measure.
+ * A table wider than the max width is narrowed, its cells wrap.
+ * Links and images in cells stay clickable through {@link #getClickable(int, int)}.
+ */
+public class TableSpan extends ReplacementSpan {
+    private final List<CharSequence[]> mRows;
+    private final int mColumnCount;
+    private final int mMaxWidth;
+    private final int mCellPadding;
+    private final int mBorderWidth;
+    private final List<ImageSpan> mImages = new ArrayList<>();
+    /**
+     * Indent of the paragraph holding the table, by lists and quotes around it
+     */
+    private int mLeadingMargin;
+
+    private final TextPaint mCellPaint = new TextPaint();
+    private final Paint mBorderPaint = new Paint();
+    // measurement, valid for the values below
+    private float mMeasuredTextSize = -1;
+    private float mMeasuredTextScaleX;
+    private Typeface mMeasuredTypeface;
+    private long mMeasuredImages;
+    private int[] mColumnWidths;
+    private int[] mRowHeights;
+    private StaticLayout[][] mLayouts;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * @param rows        cells of each row, rows may have less cells than others
+     * @param maxWidth    width available to the table
+     * @param cellPadding space between the border and the text of a cell
+     */
+    public TableSpan(List<CharSequence[]> rows, int maxWidth, int cellPadding, int borderWidth) {
+        mRows = rows;
+        int columnCount = 0;
+        for (CharSequence[] row : rows) {
+            columnCount = Math.max(columnCount, row.length);
+            for (CharSequence cell : row) {
+                if (cell instanceof Spanned) {
+                    Spanned spanned = (Spanned) cell;
+                    for (ImageSpan image : spanned.getSpans(0, spanned.length(), ImageSpan.class)) {
+                        mImages.add(image);
+                    }
+                }
+            }
+        }
+        mColumnCount = columnCount;
+        mMaxWidth = maxWidth;
+        mCellPadding = cellPadding;
+        mBorderWidth = Math.max(borderWidth, 1);
+    }
+
+    /**
+     * Cells of each row, the links and images in them are converted as the ones in the text
+     */
+    public List<CharSequence[]> getRows() {
+        return mRows;
+    }
+
+    /**
+     * Images in the cells
+     */
+    public List<ImageSpan> getImages() {
+        return mImages;
+    }
+
+    /**
+     * The table is narrowed by the leading margin of the paragraph holding it
+     */
+    public void setLeadingMargin(int leadingMargin) {
+        if (leadingMargin != mLeadingMargin) {
+            mLeadingMargin = leadingMargin;
+            mLayouts = null;
+        }
+    }
+
+    /**
+     * Size as last drawn or measured, 0 before
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Clickable span in a cell at a point relative to the top left of the table, null for none
+     */
+    public ClickableSpan getClickable(int x, int y) {
+        if (mLayouts == null || x < 0 || y < 0) {
+            return null;
+        }
+        int rowTop = mBorderWidth;
+        for (int r = 0; r < mLayouts.length; r++) {
+            if (y < rowTop + mRowHeights[r]) {
+                int cellLeft = mBorderWidth;
+                for (int c = 0; c < mColumnCount; c++) {
+                    int cellRight = cellLeft + mColumnWidths[c] + mCellPadding * 2;
+                    if (x < cellRight) {
+                        return getClickable(mLayouts[r][c], x - cellLeft - mCellPadding, y - rowTop - mCellPadding);
+                    }
+                    cellLeft = cellRight + mBorderWidth;
+                }
+                return null;
+            }
+            rowTop += mRowHeights[r] + mBorderWidth;
+        }
+        return null;
+    }
+
+    private static ClickableSpan getClickable(StaticLayout layout, int x, int y) {
+        if (layout == null || !(layout.getText() instanceof Spanned) || y < 0 || y >= layout.getHeight()) {
+            return null;
+        }
+        int line = layout.getLineForVertical(y);
+        if (x < layout.getLineLeft(line) || x > layout.getLineRight(line)) {
+            return null;
+        }
+        int offset = layout.getOffsetForHorizontal(line, x);
+        if (offset > layout.getLineStart(line) && layout.getPrimaryHorizontal(offset) > x) {
+            offset--;
+        }
+        Spanned cell = (Spanned) layout.getText();
+        ClickableSpan[] spans = cell.getSpans(offset, offset + 1, ClickableSpan.class);
+        // the span added last, as for the text
+        return (spans.length > 0) ? spans[spans.length - 1] : null;
+    }
+
+    @Override
+    public int getSize(Paint paint, CharSequence text, int start, int end, Paint.FontMetricsInt fm) {
+        measure(paint);
+        if (fm != null) {
+            fm.ascent = -mHeight;
+            fm.descent = 0;
+            fm.top = fm.ascent;
+            fm.bottom = 0;
+        }
+        return mWidth;
+    }
+
+    @Override
+    public void draw(Canvas canvas, CharSequence text, int start, int end, float x, int top, int y, int bottom, Paint paint) {
+        measure(paint);
+        // color and other draw state may change without a new measurement
+        copyPaint(paint);
+        mBorderPaint.setColor((paint.getColor() & 0x00FFFFFF) | 0x40000000);
+
+        canvas.save();
+        canvas.translate(x, bottom - mHeight);
+        int rowTop = 0;
+        for (int r = 0; r < mLayouts.length; r++) {
+            canvas.drawRect(0, rowTop, mWidth, rowTop + mBorderWidth, mBorderPaint);
+            rowTop += mBorderWidth;
+            int cellLeft = 0;
+            for (int c = 0; c < mColumnCount; c++) {
+                canvas.drawRect(cellLeft, rowTop, cellLeft + mBorderWidth, rowTop + mRowHeights[r], mBorderPaint);
+                cellLeft += mBorderWidth;
+                StaticLayout layout = mLayouts[r][c];
+                if (layout != null) {
+                    canvas.save();
+                    canvas.translate(cellLeft + mCellPadding, rowTop + mCellPadding);
+                    layout.draw(canvas);
+                    canvas.restore();
+                }
+                cellLeft += mColumnWidths[c] + mCellPadding * 2;
+            }
+            canvas.drawRect(cellLeft, rowTop, cellLeft + mBorderWidth, rowTop + mRowHeights[r], mBorderPaint);
+            rowTop += mRowHeights[r];
+        }
+        canvas.drawRect(0, rowTop, mWidth, rowTop + mBorderWidth, mBorderPaint);
+        canvas.restore();
+    }
+
+    private void measure(Paint paint) {
+        long images = imagesSize();
+        if (mLayouts != null && paint.getTextSize() == mMeasuredTextSize && paint.getTextScaleX() == mMeasuredTextScaleX
+                && paint.getTypeface() == mMeasuredTypeface && images == mMeasuredImages) {
+            return;
+        }
+        mMeasuredTextSize = paint.getTextSize();
+        mMeasuredTextScaleX = paint.getTextScaleX();
+        mMeasuredTypeface = paint.getTypeface();
+        mMeasuredImages = images;
+        copyPaint(paint);
+
+        int rowCount = mRows.size();
+        float[] minWidths = new float[mColumnCount];
+        float[] maxWidths = new float[mColumnCount];
+        for (CharSequence[] row : mRows) {
+            for (int c = 0; c < row.length; c++) {
+                minWidths[c] = Math.max(minWidths[c], longestWord(row[c]));
+                maxWidths[c] = Math.max(maxWidths[c], Layout.getDesiredWidth(row[c], mCellPaint));
+            }
+        }
+
+        // auto table layout: widest content if it fits, else the room beyond the longest words
+        // is shared by how much each column wants, else the columns narrow and words break
+        int available = Math.max(mMaxWidth - mLeadingMargin - mBorderWidth * (mColumnCount + 1) - mCellPadding * 2 * mColumnCount,
+                mColumnCount);
+        float sumMin = 0;
+        float sumMax = 0;
+        for (int c = 0; c < mColumnCount; c++) {
+            maxWidths[c] = (float) Math.ceil(maxWidths[c]);
+            sumMin += minWidths[c];
+            sumMax += maxWidths[c];
+        }
+        mColumnWidths = new int[mColumnCount];
+        for (int c = 0; c < mColumnCount; c++) {
+            float width;
+            if (sumMax <= available) {
+                width = maxWidths[c];
+            } else if (sumMin <= available && sumMax > sumMin) {
+                width = minWidths[c] + (available - sumMin) * (maxWidths[c] - minWidths[c]) / (sumMax - sumMin);
+            } else {
+                width = (sumMin > 0) ? minWidths[c] * available / sumMin : available / mColumnCount;
+            }
+            mColumnWidths[c] = Math.max((int) width, 1);
+        }
+
+        mLayouts = new StaticLayout[rowCount][mColumnCount];
+        mRowHeights = new int[rowCount];
+        mHeight = mBorderWidth;
+        for (int r = 0; r < rowCount; r++) {
+            CharSequence[] row = mRows.get(r);
+            int height = 0;
+            for (int c = 0; c < row.length; c++) {
+                StaticLayout layout = new StaticLayout(row[c], mCellPaint, mColumnWidths[c],
+                        Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+                mLayouts[r][c] = layout;
+                height = Math.max(height, layout.getHeight());
+            }
+            mRowHeights[r] = height + mCellPadding * 2;
+            mHeight += mRowHeights[r] + mBorderWidth;
+        }
+        mWidth = mBorderWidth;
+        for (int c = 0; c < mColumnCount; c++) {
+            mWidth += mColumnWidths[c] + mCellPadding * 2 + mBorderWidth;
+        }
+    }
+
+    private void copyPaint(Paint paint) {
+        if (paint instanceof TextPaint) {
+            mCellPaint.set((TextPaint) paint);
+        } else {
+            mCellPaint.set(paint);
+        }
+    }
+
+    /**
+     * Width of the longest word, the narrowest the cell gets without breaking words
+     */
+    private float longestWord(CharSequence cell) {
+        float longest = 0;
+        int length = cell.length();
+        int wordStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || Character.isWhitespace(cell.charAt(i))) {
+                if (i > wordStart) {
+                    longest = Math.max(longest, mCellPaint.measureText(cell, wordStart, i));
+                }
+                wordStart = i + 1;
+            }
+        }
+        return (float) Math.ceil(longest);
+    }
+
+    /**
+     * Changes when an image in a cell is loaded with another size
+     */
+    private long imagesSize() {
+        long size = 0;
+        for (ImageSpan image : mImages) {
+            Rect bounds = image.getDrawable().getBounds();
+            size = size * 31 + bounds.width();
+            size = size * 31 + bounds.height();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,70 @@
+package me.wcy.htmltext;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class AhoCorasickTest {
+
+    @Test
+    public void longestAtSameStart() {
+        AhoCorasick matcher = matcher("a", "ab", "abc");
+        assertArrayEquals(new int[]{0, 3, 2}, matcher.match("abc", 0, 3));
+        assertArrayEquals(new int[]{0, 2, 1, 2, 3, 0}, matcher.match("aba", 0, 3));
+    }
+
+    @Test
+    public void leftmostBeforeLongest() {
+        // the shorter codes end first, but the long one starts before them
+        AhoCorasick matcher = matcher("b", "c", "abcd");
+        assertArrayEquals(new int[]{0, 4, 2}, matcher.match("abcd", 0, 4));
+        assertArrayEquals(new int[]{1, 2, 0, 2, 3, 1}, matcher.match("abce", 0, 4));
+    }
+
+    @Test
+    public void longerMatchStartingLater() {
+        AhoCorasick matcher = matcher("ab", "bcde");
+        assertArrayEquals(new int[]{0, 2, 0}, matcher.match("abcde", 0, 5));
+        assertArrayEquals(new int[]{1, 5, 1}, matcher.match("xbcde", 0, 5));
+    }
+
+    @Test
+    public void noOverlap() {
+        AhoCorasick matcher = matcher("aa");
+        assertArrayEquals(new int[]{0, 2, 0, 2, 4, 0}, matcher.match("aaaaa", 0, 5));
+    }
+
+    @Test
+    public void suffixPatterns() {
+        AhoCorasick matcher = matcher("abcd", "bc", "cd");
+        assertArrayEquals(new int[]{1, 3, 1}, matcher.match("abcx", 0, 4));
+        assertArrayEquals(new int[]{1, 3, 1}, matcher.match("xbcd", 0, 4));
+        assertArrayEquals(new int[]{2, 4, 2}, matcher.match("xacd", 0, 4));
+    }
+
+    @Test
+    public void withinRange() {
+        AhoCorasick matcher = matcher("ab", "b");
+        assertArrayEquals(new int[]{1, 2, 1}, matcher.match("abab", 1, 3));
+        assertArrayEquals(new int[]{2, 4, 0}, matcher.match("abab", 2, 4));
+        assertArrayEquals(new int[0], matcher.match("abab", 0, 0));
+    }
+
+    @Test
+    public void surrogatePairs() {
+        AhoCorasick matcher = matcher("😀", "😀‍😁");
+        String text = "a😀‍😁😀";
+        assertArrayEquals(new int[]{1, 6, 1, 6, 8, 0}, matcher.match(text, 0, text.length()));
+    }
+
+    @Test
+    public void noPatterns() {
+        assertArrayEquals(new int[0], matcher().match("abc", 0, 3));
+    }
+
+    private static AhoCorasick matcher(String... patterns) {
+        return new AhoCorasick(Arrays.asList(patterns));
+    }
+}
@@ -0,0 +1,66 @@
+package me.wcy.htmltext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlurHashTest {
+    private static final String CHARS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    @Test
+    public void averageColorOnly() {
+        // 1x1 components, the image is the average color
+        String hash = "00" + encode83(0x336699, 4);
+        int[] pixels = BlurHash.decodePixels(hash, 4, 3);
+        assertNotNull(pixels);
+        assertEquals(12, pixels.length);
+        for (int pixel : pixels) {
+            assertEquals(0xFF336699, pixel);
+        }
+    }
+
+    @Test
+    public void componentsVaryAcrossImage() {
+        String hash = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+        int[] pixels = BlurHash.decodePixels(hash, BlurHash.SIZE, BlurHash.SIZE);
+        assertNotNull(pixels);
+        assertEquals(BlurHash.SIZE * BlurHash.SIZE, pixels.length);
+        boolean varies = false;
+        for (int pixel : pixels) {
+            assertEquals(0xFF000000, pixel & 0xFF000000);
+            varies |= pixel != pixels[0];
+        }
+        assertTrue(varies);
+    }
+
+    @Test
+    public void malformed() {
+        assertNull(BlurHash.decodePixels(null, 4, 4));
+        assertNull(BlurHash.decodePixels("00000", 4, 4));
+        // 2x1 components need 8 chars
+        assertNull(BlurHash.decodePixels("100000", 4, 4));
+        assertNull(BlurHash.decodePixels("LEHV6nWB2yk8pyo0adR*.7kCMdn", 4, 4));
+        // not base 83
+        assertNull(BlurHash.decodePixels("00 000", 4, 4));
+        assertNull(BlurHash.decodePixels("LEHV6nWB2yk8pyo0adR*.7kCMdn\"", 4, 4));
+    }
+
+    @Test
+    public void emptySize() {
+        assertNull(BlurHash.decodePixels("000000", 0, 4));
+        assertNull(BlurHash.decodePixels("000000", 4, -1));
+    }
+
+    private static String encode83(int value, int length) {
+        char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = CHARS.charAt(value % 83);
+            value /= 83;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,159 @@
+package me.wcy.htmltext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BudgetScannerTest {
+
+    @Test
+    public void sourceWithinBudgetIsKept() {
+        String source = "<p>Hello <b>world</b></p><img src=\"a.png\"/>";
+        BudgetScanner scanner = BudgetScanner.scan(source, new RenderBudget()
+                .setMaxTagCount(3).setMaxImageCount(1).setMaxNestingDepth(2));
+        assertNull(scanner.limit);
+        assertEquals(source.length(), scanner.end);
+    }
+
+    @Test
+    public void inputIsCutAtMaxChars() {
+        BudgetScanner scanner = BudgetScanner.scan("0123456789", new RenderBudget().setMaxInputChars(4));
+        assertEquals(RenderBudget.Limit.INPUT_CHARS, scanner.limit);
+        assertEquals(4, scanner.end);
+    }
+
+    @Test
+    public void tagCountCutsBeforeTheTag() {
+        String source = "<b>1</b><i>2</i><u>3</u>";
+        BudgetScanner scanner = BudgetScanner.scan(source, new RenderBudget().setMaxTagCount(2));
+        assertEquals(RenderBudget.Limit.TAG_COUNT, scanner.limit);
+        assertEquals(source.indexOf("<u>"), scanner.end);
+    }
+
+    @Test
+    public void imageCount() {
+        String source = "<img src=\"1\"><img src=\"2\">";
+        BudgetScanner scanner = BudgetScanner.scan(source, new RenderBudget().setMaxImageCount(1));
+        assertEquals(RenderBudget.Limit.IMAGE_COUNT, scanner.limit);
+        assertEquals(source.indexOf("<img src=\"2\">"), scanner.end);
+    }
+
+    @Test
+    public void nestingDepth() {
+        String source = "<div><div><div>deep</div></div></div>";
+        BudgetScanner scanner = BudgetScanner.scan(source, new RenderBudget().setMaxNestingDepth(2));
+        assertEquals(RenderBudget.Limit.NESTING_DEPTH, scanner.limit);
+        assertEquals(10, scanner.end);
+    }
+
+    @Test
+    public void closedSiblingsDontNest() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            source.append("<div><b>x</b></div>");
+        }
+        assertNull(BudgetScanner.scan(source.toString(), new RenderBudget().setMaxNestingDepth(2)).limit);
+    }
+
+    @Test
+    public void impliedEndTagsDontNest() {
+        StringBuilder list = new StringBuilder("<ul>");
+        for (int i = 0; i < 100; i++) {
+            list.append("<li>item ").append(i);
+        }
+        list.append("</ul>");
+        assertNull(BudgetScanner.scan(list.toString(), new RenderBudget().setMaxNestingDepth(2)).limit);
+
+        StringBuilder paragraphs = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            paragraphs.append("<p>paragraph ").append(i);
+        }
+        assertNull(BudgetScanner.scan(paragraphs.toString(), new RenderBudget().setMaxNestingDepth(1)).limit);
+
+        StringBuilder table = new StringBuilder("<table>");
+        for (int i = 0; i < 100; i++) {
+            table.append("<tr><td>a<td>b<th>c");
+        }
+        table.append("</table>");
+        assertNull(BudgetScanner.scan(table.toString(), new RenderBudget().setMaxNestingDepth(3)).limit);
+    }
+
+    @Test
+    public void nestedListsStillNest() {
+        String source = "<ul><li>a<ul><li>b<ul><li>c</ul></ul></ul>";
+        BudgetScanner scanner = BudgetScanner.scan(source, new RenderBudget().setMaxNestingDepth(5));
+        assertEquals(RenderBudget.Limit.NESTING_DEPTH, scanner.limit);
+        assertEquals(source.lastIndexOf("<li>"), scanner.end);
+    }
+
+    @Test
+    public void endTagClosesElementsLeftOpen() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            source.append("<div><span><b>x</div>");
+        }
+        assertNull(BudgetScanner.scan(source.toString(), new RenderBudget().setMaxNestingDepth(3)).limit);
+    }
+
+    @Test
+    public void voidAndSelfClosingTagsDontNest() {
+        String source = "<p>a<br>b<img src=\"x\">c<span/>d</p>";
+        assertNull(BudgetScanner.scan(source, new RenderBudget().setMaxNestingDepth(1)).limit);
+    }
+
+    @Test
+    public void unterminatedTagRunsToEnd() {
+        BudgetScanner scanner = BudgetScanner.scan("text<b", new RenderBudget().setMaxTagCount(10));
+        assertNull(scanner.limit);
+        assertEquals(6, scanner.end);
+        // still a tag, counted against the budget
+        scanner = BudgetScanner.scan("<b>x</b><i title='x>", new RenderBudget().setMaxTagCount(1));
+        assertEquals(RenderBudget.Limit.TAG_COUNT, scanner.limit);
+        assertEquals(8, scanner.end);
+    }
+
+    @Test
+    public void quotesInCommentsDontHideTags() {
+        StringBuilder source = new StringBuilder("<!-- don't --><!DOCTYPE html><![CDATA[ it's ]]>");
+        int prefix = source.length();
+        for (int i = 0; i < 1000; i++) {
+            source.append("<div>");
+        }
+        BudgetScanner scanner = BudgetScanner.scan(source.toString(), new RenderBudget().setMaxTagCount(10));
+        assertEquals(RenderBudget.Limit.TAG_COUNT, scanner.limit);
+        assertEquals(prefix + 10 * "<div>".length(), scanner.end);
+    }
+
+    @Test
+    public void tagsInCommentsNotCounted() {
+        String source = "<!-- <b>1</b><i>2</i> --><u>3</u>";
+        assertNull(BudgetScanner.scan(source, new RenderBudget().setMaxTagCount(1)).limit);
+        assertEquals(source.indexOf("-->") + 2, BudgetScanner.findMarkupEnd(source, 0, source.length()));
+        assertEquals(-1, BudgetScanner.findMarkupEnd("<!-- open", 0, 9));
+    }
+
+    @Test
+    public void quotedGreaterThanDoesNotEndTag() {
+        String source = "<a title=\"a>b\">x</a>";
+        assertEquals(source.indexOf("x</a>") - 1, BudgetScanner.findTagEnd(source, 1, source.length()));
+        assertNull(BudgetScanner.scan(source, new RenderBudget().setMaxTagCount(1)).limit);
+    }
+
+    @Test
+    public void plainLessThanIsText() {
+        String source = "1 < 2 <b>b</b>";
+        BudgetScanner scanner = BudgetScanner.scan(source, new RenderBudget().setMaxTagCount(1));
+        assertNull(scanner.limit);
+    }
+
+    @Test
+    public void plainText() {
+        assertEquals("Title\nA & B <c>\nitem",
+                BudgetScanner.toPlainText("<h1>Title</h1><p>A &amp; B &lt;c&gt;</p><li>item", 100));
+        assertEquals("A\u00a9", BudgetScanner.toPlainText("A&#169;", 100));
+        assertEquals("&unknown;", BudgetScanner.toPlainText("&unknown;", 100));
+        assertEquals("abc", BudgetScanner.toPlainText("abcdef", 3));
+        assertEquals("ab", BudgetScanner.toPlainText("a<!-- <p>don't</p> -->b", 100));
+    }
+}
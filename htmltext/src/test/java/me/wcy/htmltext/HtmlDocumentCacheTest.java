@@ -0,0 +1,63 @@
+package me.wcy.htmltext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class HtmlDocumentCacheTest {
+    /**
+     * Under a regular file, so it can't be created and documents are only found in memory
+     */
+    private File noDir;
+
+    @Before
+    public void setUp() throws IOException {
+        File file = File.createTempFile("html", ".htxt");
+        // kept while writes may still be pending
+        file.deleteOnExit();
+        noDir = new File(file, "cache");
+    }
+
+    @Test
+    public void recentDocumentsInMemory() {
+        HtmlDocumentCache cache = new HtmlDocumentCache(noDir);
+        byte[] data = new byte[100];
+        cache.put("a", data);
+        assertSame(data, cache.get("a"));
+        cache.remove("a");
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void leastRecentlyUsedDropped() {
+        HtmlDocumentCache cache = new HtmlDocumentCache(noDir, 250);
+        byte[] a = new byte[100];
+        byte[] b = new byte[100];
+        cache.put("a", a);
+        cache.put("b", b);
+        cache.get("a");
+        cache.put("c", new byte[100]);
+        assertSame(a, cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void largeDocumentsNotKept() {
+        HtmlDocumentCache cache = new HtmlDocumentCache(noDir, 10);
+        cache.put("a", new byte[11]);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void clearEmptiesMemory() {
+        HtmlDocumentCache cache = new HtmlDocumentCache(noDir);
+        cache.put("a", new byte[1]);
+        cache.clear();
+        assertNull(cache.get("a"));
+    }
+}
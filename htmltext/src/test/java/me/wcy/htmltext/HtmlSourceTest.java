@@ -0,0 +1,78 @@
+package me.wcy.htmltext;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HtmlSourceTest {
+
+    @Test
+    public void ascii() throws IOException {
+        assertDecoded("<p>Hello</p>");
+    }
+
+    @Test
+    public void multibyte() throws IOException {
+        assertDecoded("<p>中文 © é ₂</p>");
+    }
+
+    @Test
+    public void surrogatePairs() throws IOException {
+        assertDecoded("😀a🎉");
+    }
+
+    @Test
+    public void empty() {
+        assertEquals("", HtmlSource.decode(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    public void fromPosition() throws IOException {
+        ByteBuffer content = ByteBuffer.wrap("xx中b".getBytes("UTF-8"));
+        content.position(2);
+        assertEquals("中b", HtmlSource.decode(content));
+    }
+
+    @Test
+    public void malformedReplaced() {
+        // a lone continuation byte, an invalid lead byte and a sequence cut short
+        byte[] bytes = {'a', (byte) 0x80, 'b', (byte) 0xFF, 'c', (byte) 0xE4, (byte) 0xB8};
+        assertEquals("a�b�c�", HtmlSource.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void malformedNeedsMoreRoom() {
+        // lone continuation bytes aren't counted, but each one is replaced
+        byte[] bytes = {(byte) 0x80, (byte) 0x80, (byte) 0x80};
+        assertEquals("���", HtmlSource.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void fileWithoutByteOrderMark() throws IOException {
+        File file = File.createTempFile("html", ".html");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+            out.write("<p>中</p>".getBytes("UTF-8"));
+            out.close();
+            assertEquals("<p>中</p>", HtmlSource.file(file).decode());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void missingFile() {
+        assertNull(HtmlSource.file(new File("/nonexistent/a.html")).decode());
+    }
+
+    private static void assertDecoded(String text) throws IOException {
+        assertEquals(text, HtmlSource.decode(ByteBuffer.wrap(text.getBytes("UTF-8"))));
+    }
+}
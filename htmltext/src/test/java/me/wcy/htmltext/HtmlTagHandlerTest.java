@@ -0,0 +1,56 @@
+package me.wcy.htmltext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HtmlTagHandlerTest {
+    private static final String A = HtmlTagHandler.ANCHOR;
+    private static final String STYLE = HtmlTagHandler.STYLE;
+    private static final String BLOCK_STYLE = "HTML_TEXT_TAG_BLOCK_STYLE";
+    private static final String DIV = "HTML_TEXT_TAG_DIV";
+
+    @Test
+    public void anchorsRenamed() {
+        assertOverridden("<" + A + " href=\"x\">a</" + A + "><abbr>b</abbr>",
+                "<a href=\"x\">a</a><abbr>b</abbr>");
+        assertOverridden("<" + A + " HREF='y'>c</" + A + ">", "<A HREF='y'>c</A>");
+    }
+
+    @Test
+    public void styleMovesToWrapper() {
+        assertOverridden("<span class=\"c\" ><" + STYLE + " style=\"color:red\">a</" + STYLE + "></span>b",
+                "<span class=\"c\" style=\"color:red\">a</span>b");
+        assertOverridden("<span/>a", "<span/>a");
+    }
+
+    @Test
+    public void unclosedStyledSpan() {
+        assertOverridden("<span ><" + STYLE + " style=\"color:red\">a</" + STYLE + ">",
+                "<span style=\"color:red\">a");
+        // the outer span is still open after the inner one closes
+        assertOverridden("<span ><" + STYLE + " style=\"x\"><span ><" + STYLE + " style=\"y\">a</"
+                        + STYLE + "></span>b</" + STYLE + ">",
+                "<span style=\"x\"><span style=\"y\">a</span>b");
+        // closing the div closes the styles left open inside it
+        assertOverridden("<" + DIV + " ><" + BLOCK_STYLE + " style=\"x\"><span ><" + STYLE + " style=\"y\">a</"
+                        + STYLE + "></" + BLOCK_STYLE + "></" + DIV + ">b",
+                "<div style=\"x\"><span style=\"y\">a</div>b");
+    }
+
+    @Test
+    public void paragraphStyleClosedByBlock() {
+        assertOverridden("<p ><" + BLOCK_STYLE + " style=\"x\">a</" + BLOCK_STYLE + "><" + DIV + ">b</" + DIV + ">c",
+                "<p style=\"x\">a<div>b</div>c");
+        assertOverridden("<p ><" + BLOCK_STYLE + " style=\"x\">a</" + BLOCK_STYLE + "><h1>b</h1>",
+                "<p style=\"x\">a<h1>b</h1>");
+        assertOverridden("<p ><" + BLOCK_STYLE + " style='x'>a</" + BLOCK_STYLE + "><p>b", "<p style='x'>a<p>b");
+        // inline tags stay inside the paragraph
+        assertOverridden("<p ><" + BLOCK_STYLE + " style=\"x\">a<b>b</b></" + BLOCK_STYLE + ">",
+                "<p style=\"x\">a<b>b</b>");
+    }
+
+    private static void assertOverridden(String expected, String html) {
+        assertEquals("<html>" + expected + "</html>", new HtmlTagHandler().overrideTags(html));
+    }
+}
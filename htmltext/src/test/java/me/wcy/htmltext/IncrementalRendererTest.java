@@ -0,0 +1,50 @@
+package me.wcy.htmltext;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalRendererTest {
+
+    @Test
+    public void splitAtTopLevelBlocks() {
+        assertSplit("<p>a</p>", "<div>b<div>c</div></div>", "text", "<hr>", "<p>d</p>");
+    }
+
+    @Test
+    public void openParagraphClosedByNext() {
+        assertSplit("<p>a", "<p>b", "<p>c");
+    }
+
+    @Test
+    public void quotedGreaterThanInAttribute() {
+        assertSplit("<p title=\"a>b\">x</p>", "<div data-x='</div>'>y</div>");
+    }
+
+    @Test
+    public void plainLessThanInText() {
+        assertSplit("<p>1 < 2</p>", "<p>a <- b</p>");
+    }
+
+    @Test
+    public void tagsInCommentsIgnored() {
+        assertSplit("<p>a<!-- </p><div> --></p>", "<p>b</p>");
+    }
+
+    @Test
+    public void unterminatedTagIsLastBlock() {
+        assertSplit("<p>a</p>", "<p>b</p>", "<div");
+    }
+
+    private static void assertSplit(String... blocks) {
+        StringBuilder source = new StringBuilder();
+        for (String block : blocks) {
+            source.append(block);
+        }
+        List<String> expected = Arrays.asList(blocks);
+        assertEquals(expected, IncrementalRenderer.split(source.toString()));
+    }
+}
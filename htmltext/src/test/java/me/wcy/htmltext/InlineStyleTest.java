@@ -0,0 +1,91 @@
+package me.wcy.htmltext;
+
+import android.text.Layout;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InlineStyleTest {
+
+    @Test
+    public void hexColors() {
+        assertEquals(0xFFFF0000L, color("#f00"));
+        assertEquals(0x8811AA33L, color("#1a38"));
+        assertEquals(0xFF12AB34L, color("#12ab34"));
+        assertEquals(0x8012AB34L, color("#12AB3480"));
+        assertEquals(InlineStyle.NO_COLOR, color("#12ab3"));
+        assertEquals(InlineStyle.NO_COLOR, color("#12ag34"));
+    }
+
+    @Test
+    public void rgbColors() {
+        assertEquals(0xFF0A141EL, color("rgb(10, 20, 30)"));
+        assertEquals(0xFF0A141EL, color("RGB(10,20,30)"));
+        assertEquals(0xFFFF0000L, color("rgb(300, 0, 0)"));
+        assertEquals(0xFF8000FFL, color("rgb(50%, 0%, 100%)"));
+        assertEquals(InlineStyle.NO_COLOR, color("rgb(10, 20)"));
+        assertEquals(InlineStyle.NO_COLOR, color("rgb(a, b, c)"));
+    }
+
+    @Test
+    public void rgbaColors() {
+        assertEquals(0x800A141EL, color("rgba(10, 20, 30, 0.5)"));
+        assertEquals(0x400A141EL, color("rgba(10, 20, 30, 25%)"));
+        assertEquals(0xFF0A141EL, color("rgba(10, 20, 30)"));
+    }
+
+    @Test
+    public void important() {
+        InlineStyle style = InlineStyle.parse("color: #f00 !important; font-weight: bold!IMPORTANT");
+        assertEquals(0xFFFF0000L, style.color);
+        assertTrue(style.bold);
+    }
+
+    @Test
+    public void fontSizes() {
+        assertSize(InlineStyle.SIZE_DIP, 16, "font-size: 16px");
+        assertSize(InlineStyle.SIZE_DIP, 16, "font-size: 16");
+        assertSize(InlineStyle.SIZE_DIP, 16, "font-size: 12pt");
+        assertSize(InlineStyle.SIZE_RELATIVE, 1.5f, "font-size: 1.5em");
+        assertSize(InlineStyle.SIZE_RELATIVE, 0.8f, "font-size: 80%");
+        assertSize(InlineStyle.SIZE_RELATIVE, 1.2f, "font-size: larger");
+        assertNull(InlineStyle.get("font-size: 16vw"));
+    }
+
+    @Test
+    public void unknownPropertiesIgnored() {
+        assertNull(InlineStyle.get("margin: 0; display: none"));
+        assertNull(InlineStyle.get("color"));
+        assertNull(InlineStyle.get(""));
+        InlineStyle style = InlineStyle.parse("margin: 0; text-align: center; padding: 4px");
+        assertEquals(Layout.Alignment.ALIGN_CENTER, style.alignment);
+        assertEquals(InlineStyle.NO_COLOR, style.color);
+        assertFalse(style.bold);
+    }
+
+    @Test
+    public void declarations() {
+        InlineStyle style = InlineStyle.parse(" background-color : #000 ; text-decoration: underline line-through;"
+                + "font-style: italic; font-weight: 700; font-family: 'Serif', sans-serif");
+        assertEquals(0xFF000000L, style.backgroundColor);
+        assertTrue(style.underline);
+        assertTrue(style.strikethrough);
+        assertTrue(style.italic);
+        assertTrue(style.bold);
+        assertEquals("serif", style.fontFamily);
+    }
+
+    private static long color(String value) {
+        return InlineStyle.parseColor(value, 0, value.length());
+    }
+
+    private static void assertSize(int sizeType, float size, String css) {
+        InlineStyle style = InlineStyle.parse(css);
+        assertEquals(css, sizeType, style.sizeType);
+        assertEquals(css, size, style.size, 0.001f);
+    }
+}
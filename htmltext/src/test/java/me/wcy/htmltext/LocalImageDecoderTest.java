@@ -0,0 +1,69 @@
+package me.wcy.htmltext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocalImageDecoderTest {
+
+    @Test
+    public void dataAlwaysDecoded() {
+        assertTrue(LocalImageDecoder.canDecode("data:image/png;base64,iVBORw0KGgo=", false));
+        assertTrue(LocalImageDecoder.canDecode("data:image/svg+xml,%3Csvg%3E%3C/svg%3E", false));
+        assertTrue(LocalImageDecoder.canDecode("DATA:image/gif;BASE64,R0lGOD", false));
+        assertFalse(LocalImageDecoder.canDecode("data:image/png", false));
+    }
+
+    @Test
+    public void localOnlyIfAllowed() {
+        String[] sources = {"file:///sdcard/a.png", "file:///android_asset/a.png", "asset://a.png",
+                "res://2130837504", "res://drawable/icon"};
+        for (String source : sources) {
+            assertFalse(source, LocalImageDecoder.canDecode(source, false));
+            assertTrue(source, LocalImageDecoder.canDecode(source, true));
+        }
+    }
+
+    @Test
+    public void remoteLeftToLoader() {
+        assertFalse(LocalImageDecoder.canDecode("http://example.com/a.png", true));
+        assertFalse(LocalImageDecoder.canDecode("//example.com/a.png", true));
+        assertFalse(LocalImageDecoder.canDecode(null, true));
+    }
+
+    @Test
+    public void base64() throws IOException {
+        String source = "data:text/plain;base64,SGVs\nbG8=";
+        assertArrayEquals("Hello".getBytes("UTF-8"),
+                read(new LocalImageDecoder.Base64InputStream(source, source.indexOf(',') + 1)));
+        source = "data:,YQ";
+        assertArrayEquals("a".getBytes("UTF-8"),
+                read(new LocalImageDecoder.Base64InputStream(source, source.indexOf(',') + 1)));
+    }
+
+    @Test
+    public void percentEncoded() throws IOException {
+        String source = "data:image/svg+xml,%3Csvg%20a='1'%3E%e4%b8%ad</svg>%2";
+        assertArrayEquals("<svg a='1'>中</svg>%2".getBytes("UTF-8"),
+                read(new LocalImageDecoder.PercentInputStream(source, source.indexOf(',') + 1)));
+        source = "data:,100%zz";
+        assertArrayEquals("100%zz".getBytes("UTF-8"),
+                read(new LocalImageDecoder.PercentInputStream(source, source.indexOf(',') + 1)));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int count;
+        while ((count = in.read(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,226 @@
+package me.wcy.htmltext;
+
+import android.text.Spanned;
+import android.text.style.StrikethroughSpan;
+import android.text.style.UnderlineSpan;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.wcy.htmltext.span.LinkClickSpan;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SpannedCodecTest {
+    private static final int MAGIC = 0x48545854;
+
+    @Test
+    public void emptyDocument() throws IOException {
+        assertNotNull(decode(document(MAGIC, SpannedCodec.VERSION, 0, 0)));
+    }
+
+    @Test
+    public void wrongMagic() throws IOException {
+        assertNull(decode(document(0x12345678, SpannedCodec.VERSION, 0, 0)));
+    }
+
+    @Test
+    public void otherVersion() throws IOException {
+        assertNull(decode(document(MAGIC, SpannedCodec.VERSION + 1, 0, 0)));
+    }
+
+    @Test
+    public void stringLengthBeyondData() throws IOException {
+        // would allocate 2 GB if the length were trusted
+        assertNull(decode(document(MAGIC, SpannedCodec.VERSION, Integer.MAX_VALUE, 0)));
+        assertNull(decode(document(MAGIC, SpannedCodec.VERSION, 1, 0)));
+    }
+
+    @Test
+    public void truncated() throws IOException {
+        byte[] data = document(MAGIC, SpannedCodec.VERSION, 0, 0);
+        for (int length = 0; length < data.length; length++) {
+            byte[] part = new byte[length];
+            System.arraycopy(data, 0, part, 0, length);
+            assertNull(decode(part));
+        }
+    }
+
+    @Test
+    public void spanCountBeyondData() throws IOException {
+        assertNull(decode(document(MAGIC, SpannedCodec.VERSION, 0, 1000)));
+    }
+
+    @Test
+    public void spanOutOfText() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(document(MAGIC, SpannedCodec.VERSION, 0, 1));
+        out.writeByte(7); // underline
+        out.writeInt(0);
+        out.writeInt(10);
+        out.writeInt(0);
+        assertNull(decode(bytes.toByteArray()));
+    }
+
+    @Test
+    public void encodedLayout() throws IOException {
+        FakeSpanned text = new FakeSpanned("Hello 中文 link");
+        text.add(new UnderlineSpan(), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.add(new LinkClickSpan(null, "http://a.com/中"), 9, 13, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        byte[] data = SpannedCodec.encode(text, null);
+        assertNotNull(data);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        assertEquals(MAGIC, in.readInt());
+        assertEquals(SpannedCodec.VERSION, in.readInt());
+        assertEquals("Hello 中文 link", readString(in));
+        assertEquals(2, in.readInt());
+        assertSpan(in, 7, 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertSpan(in, 16, 9, 13, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        assertEquals("http://a.com/中", readString(in));
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void decodesWhatIsEncoded() {
+        FakeSpanned text = new FakeSpanned("abc");
+        text.add(new StrikethroughSpan(), 1, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.add(new LinkClickSpan(null, "mailto:a@b.c"), 0, 3, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+        byte[] data = SpannedCodec.encode(text, null);
+        assertNotNull(decode(data));
+        // every byte is read, one more is rejected
+        byte[] longer = new byte[data.length + 1];
+        System.arraycopy(data, 0, longer, 0, data.length);
+        assertNull(decode(longer));
+    }
+
+    @Test
+    public void unknownSpanNotEncoded() {
+        FakeSpanned text = new FakeSpanned("abc");
+        text.add(new Object(), 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertNull(SpannedCodec.encode(text, null));
+    }
+
+    @Test
+    public void sameEncodingEachTime() {
+        FakeSpanned text = new FakeSpanned("abc");
+        text.add(new UnderlineSpan(), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertArrayEquals(SpannedCodec.encode(text, null), SpannedCodec.encode(text, null));
+    }
+
+    private static void assertSpan(DataInputStream in, int kind, int start, int end, int flags) throws IOException {
+        assertEquals(kind, in.readByte());
+        assertEquals(start, in.readInt());
+        assertEquals(end, in.readInt());
+        assertEquals(flags, in.readInt());
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Header, an empty text with the given length prefix and the span count
+     */
+    private static byte[] document(int magic, int version, int textLength, int spanCount) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeInt(textLength);
+        out.writeInt(spanCount);
+        return bytes.toByteArray();
+    }
+
+    private static Object decode(byte[] data) {
+        return SpannedCodec.decode(data, null, null, null, null, new ArrayList<String>());
+    }
+
+    /**
+     * Spans in the order they are added, the framework's Spanned is only a stub in unit tests
+     */
+    private static class FakeSpanned implements Spanned {
+        private final String text;
+        private final List<Object> spans = new ArrayList<>();
+        private final List<int[]> ranges = new ArrayList<>();
+
+        FakeSpanned(String text) {
+            this.text = text;
+        }
+
+        void add(Object span, int start, int end, int flags) {
+            spans.add(span);
+            ranges.add(new int[]{start, end, flags});
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T[] getSpans(int start, int end, Class<T> type) {
+            List<T> result = new ArrayList<>();
+            for (int i = 0; i < spans.size(); i++) {
+                int[] range = ranges.get(i);
+                if (type.isInstance(spans.get(i)) && range[0] <= end && range[1] >= start) {
+                    result.add((T) spans.get(i));
+                }
+            }
+            return result.toArray((T[]) Array.newInstance(type, result.size()));
+        }
+
+        @Override
+        public int getSpanStart(Object span) {
+            int i = spans.indexOf(span);
+            return (i < 0) ? -1 : ranges.get(i)[0];
+        }
+
+        @Override
+        public int getSpanEnd(Object span) {
+            int i = spans.indexOf(span);
+            return (i < 0) ? -1 : ranges.get(i)[1];
+        }
+
+        @Override
+        public int getSpanFlags(Object span) {
+            int i = spans.indexOf(span);
+            return (i < 0) ? 0 : ranges.get(i)[2];
+        }
+
+        @Override
+        public int nextSpanTransition(int start, int limit, Class type) {
+            return limit;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
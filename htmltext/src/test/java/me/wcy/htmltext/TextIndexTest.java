@@ -0,0 +1,64 @@
+package me.wcy.htmltext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class TextIndexTest {
+
+    @Test
+    public void findAllOccurrences() {
+        HtmlSearch.TextIndex index = index("abcabcab");
+        assertArrayEquals(new int[]{0, 3, 6}, index.find("ab"));
+        assertArrayEquals(new int[]{0, 3}, index.find("abc"));
+        assertArrayEquals(new int[]{1, 4}, index.find("bc"));
+        assertArrayEquals(new int[]{2, 5}, index.find("c"));
+        assertArrayEquals(new int[0], index.find("x"));
+        assertArrayEquals(new int[0], index.find("abcabcabc"));
+    }
+
+    @Test
+    public void findIncludesOverlapping() {
+        assertArrayEquals(new int[]{0, 1, 2, 3}, index("aaaaa").find("aa"));
+    }
+
+    @Test
+    public void nonOverlapping() {
+        assertArrayEquals(new int[]{0, 2}, HtmlSearch.TextIndex.nonOverlapping(new int[]{0, 1, 2, 3}, 2));
+        assertArrayEquals(new int[]{0, 3}, HtmlSearch.TextIndex.nonOverlapping(new int[]{0, 1, 2, 3}, 3));
+        assertArrayEquals(new int[]{1, 5}, HtmlSearch.TextIndex.nonOverlapping(new int[]{1, 5}, 3));
+    }
+
+    @Test
+    public void refineSameAsFind() {
+        HtmlSearch.TextIndex index = index("aaa");
+        int[] refined = index.refine(index.find("a"), "aa");
+        assertArrayEquals(index.find("aa"), refined);
+        assertArrayEquals(new int[]{0}, HtmlSearch.TextIndex.nonOverlapping(refined, 2));
+
+        index = index("aaaaaa");
+        refined = index.refine(index.refine(index.find("a"), "aa"), "aaa");
+        assertArrayEquals(index.find("aaa"), refined);
+        assertArrayEquals(new int[]{0, 3}, HtmlSearch.TextIndex.nonOverlapping(refined, 3));
+    }
+
+    @Test
+    public void maskedCharsNeverMatch() {
+        char[] chars = "a\0b".toCharArray();
+        HtmlSearch.TextIndex index = new HtmlSearch.TextIndex(chars);
+        assertArrayEquals(new int[0], index.find("\0"));
+        assertArrayEquals(new int[0], index.find("a\0"));
+        assertArrayEquals(new int[]{2}, index.find("b"));
+    }
+
+    @Test
+    public void emptyText() {
+        HtmlSearch.TextIndex index = index("");
+        assertArrayEquals(new int[0], index.find("a"));
+        assertArrayEquals(new int[0], index.find("ab"));
+    }
+
+    private static HtmlSearch.TextIndex index(String text) {
+        return new HtmlSearch.TextIndex(text.toCharArray());
+    }
+}
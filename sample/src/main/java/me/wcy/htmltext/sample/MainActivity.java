@@ -8,7 +8,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.text.method.LinkMovementMethod;
 import android.util.DisplayMetrics;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -17,13 +16,10 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.animation.GlideAnimation;
 import com.bumptech.glide.request.target.SimpleTarget;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.List;
 
 import me.wcy.htmltext.HtmlImageLoader;
+import me.wcy.htmltext.HtmlLinkMovementMethod;
 import me.wcy.htmltext.HtmlText;
 import me.wcy.htmltext.OnTagClickListener;
 
@@ -36,9 +32,8 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         textView = (TextView) findViewById(R.id.text);
-        textView.setMovementMethod(LinkMovementMethod.getInstance());
-        String sample = getSample();
-        HtmlText.from(sample)
+        textView.setMovementMethod(HtmlLinkMovementMethod.getInstance());
+        HtmlText.fromRaw(getResources(), R.raw.sample)
                 .setImageLoader(new HtmlImageLoader() {
                     @Override
                     public void loadImage(String url, final Callback callback) {
@@ -101,23 +96,6 @@ public class MainActivity extends AppCompatActivity {
                 .into(textView);
     }
 
-    private String getSample() {
-        try {
-            InputStream is = getResources().openRawResource(R.raw.sample);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-                sb.append("\n");
-            }
-            return sb.toString();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
-
     private int getTextWidth() {
         DisplayMetrics dm = getResources().getDisplayMetrics();
         return dm.widthPixels - textView.getPaddingLeft() - textView.getPaddingRight();